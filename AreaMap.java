@@ -1,48 +1,195 @@
 /* AreaMap class
- * 
+ *
  * An AreaMap object holds information about
  * the areas on a sudoku board. It loads the area
- * information from a file, allowing the user to 
+ * information from a file, allowing the user to
  * specify the shape of the areas.
+ *
+ * All the lookup tables (units, peers, the fields of
+ * each area and the row/area and column/area
+ * intersections) are built once when the map is loaded.
+ * The maps never change after that, so the lookup methods
+ * never allocate, and one AreaMap can be shared by every
+ * board and thread. Callers must not modify the returned
+ * arrays.
+ *
+ * Maps are loaded with load(), which interns them by file
+ * name and by content, so each map file is only read once
+ * and two files with the same map give the same AreaMap.
+ * parse() reads a map from a string instead, as written by
+ * toMapString(), for files that carry their own map.
  * */
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 class AreaMap{
-	private Integer[] area;
-	private int size;
+	/* The loaded maps, by size and file name, and by content */
+	private static final ConcurrentHashMap<String, AreaMap> byName = new ConcurrentHashMap<String, AreaMap>();
+	private static final ConcurrentHashMap<String, AreaMap> byContent = new ConcurrentHashMap<String, AreaMap>();
+	private final int[] area;					//Area index of each field
+	private final int size;
+	private final int[] areas;					//0 .. size-1
+	private final int[][] cells;				//Fields in each area
+	private final int[][] unit;					//Rows, then columns, then areas
+	private final int[][] unitsOf;				//Row, column and area unit of each field
+	private final int[][] peers;				//Fields sharing a unit with each field
+	private final int[][] boxOnly;				//Fields in each field's area but not in its row or column
+	private final int[][][] outsidersRow;		//[area][row]: fields in row that are not in area
+	private final int[][][] outsidersCol;		//[area][col]: fields in col that are not in area
+	private final int[][][] insidersRow;		//[area][row]: fields in both row and area
+	private final int[][][] insidersCol;		//[area][col]: fields in both col and area
 
-	public AreaMap(AreaMap original){
-		/* Copy constructor */
-		size = original.getSize();
-		area = new Integer[size*size];
-		for(int i = 0; i < size*size; i++){
-			area[i] = original.getAreaNumber(i);
+	public static AreaMap load(String mapFileName, int size){
+		/* Return the map in the file mapFileName, checking
+		 * that it is of size "size". The file is only read
+		 * the first time
+		 * */
+		String name = size + ":" + mapFileName;
+		AreaMap map = byName.get(name);
+		if(map == null){
+			ArrayList<Integer> areaList = new ArrayList<Integer>();
+			try{
+				Scanner s = new Scanner(new File(mapFileName));	//Add all Integers in file to areaList
+				while(s.hasNextInt()){
+					areaList.add(s.nextInt());
+				}
+			} catch(FileNotFoundException e){
+				System.err.println("Could not find map file \'" + mapFileName + "\'");
+				System.exit(-1);
+			}
+			map = intern(new AreaMap(areaList, size, mapFileName));
+			AreaMap raced = byName.putIfAbsent(name, map);
+			if(raced != null) map = raced;
 		}
+		return map;
 	}
-	public AreaMap(String mapFileName, int size){
-		/* The standard constructor. It loads the map from
-		 * the file mapFileName, checking that it is of size "size"
+	public static AreaMap parse(String text, int size){
+		/* Return the map in text, in the map file format,
+		 * checking that it is of size "size"
 		 * */
 		ArrayList<Integer> areaList = new ArrayList<Integer>();
-		File mapFile = new File(mapFileName);
-		try{
-			Scanner s = new Scanner(mapFile);				//Add all Integers in file to areaList
-			while(s.hasNextInt()){
-				areaList.add(s.nextInt());
-			}
-		} catch(FileNotFoundException e){
-			System.err.println("Could not find map file \'" + mapFileName + "\'");
-			System.exit(-1);
+		Scanner s = new Scanner(text);
+		while(s.hasNextInt()){
+			areaList.add(s.nextInt());
 		}
-		area = new Integer[areaList.size()];				//Convert areaList to array
-		area = areaList.toArray(area);
-		this.size = (int)Math.sqrt(area.length);			//Check if the size of the map is correct
-		if(this.size != size){
+		return intern(new AreaMap(areaList, size, "(inline)"));
+	}
+	private static AreaMap intern(AreaMap map){
+		/* Return the loaded map with the same content as
+		 * map, or map if it is the first
+		 * */
+		AreaMap same = byContent.putIfAbsent(map.size + ":" + Arrays.toString(map.area), map);
+		return (same != null) ? same : map;
+	}
+	private AreaMap(ArrayList<Integer> areaList, int size, String mapFileName){
+		/* Build the map from the area numbers of the
+		 * fields in areaList, read from the file
+		 * mapFileName, checking that it is of size "size".
+		 * Use load() or parse()
+		 * */
+		this.size = (int)Math.sqrt(areaList.size());		//Check if the size of the map is correct
+		if(this.size != size || size*size != areaList.size()){
 			System.err.println("Size of map file does not match size of board");
 			System.exit(-1);
 		}
+		/* Number the areas 0 .. size-1 in the order they appear */
+		HashMap<Integer, Integer> index = new HashMap<Integer, Integer>();
+		area = new int[size*size];
+		for(int i = 0; i < size*size; i++){
+			Integer a = index.get(areaList.get(i));
+			if(a == null){
+				a = index.size();
+				index.put(areaList.get(i), a);
+			}
+			area[i] = a;
+		}
+		if(index.size() != size){
+			System.err.println("Map file \'" + mapFileName + "\' should have " + size + " areas, not " + index.size());
+			System.exit(-1);
+		}
+		/* Build all the lookup tables from area[] */
+		int n = size*size;
+		areas = new int[size];
+		cells = new int[size][size];
+		int[] count = new int[size];
+		for(int a = 0; a < size; a++){
+			areas[a] = a;
+		}
+		for(int i = 0; i < n; i++){					//Collect the fields of each area
+			int a = area[i];
+			if(count[a] >= size){
+				System.err.println("Area " + a + " in map file \'" + mapFileName + "\' has more than " + size + " fields");
+				System.exit(-1);
+			}
+			cells[a][count[a]++] = i;
+		}
+		unit = new int[3*size][];
+		for(int r = 0; r < size; r++){
+			unit[r] = new int[size];
+			unit[size + r] = new int[size];
+			for(int c = 0; c < size; c++){
+				unit[r][c] = size*r + c;			//Row r
+				unit[size + r][c] = size*c + r;		//Column r
+			}
+		}
+		for(int a = 0; a < size; a++){
+			unit[2*size + a] = cells[a];
+		}
+		unitsOf = new int[n][];
+		peers = new int[n][];
+		boxOnly = new int[n][];
+		boolean[] seen = new boolean[n];
+		for(int i = 0; i < n; i++){
+			int row = i / size;
+			int col = i % size;
+			unitsOf[i] = new int[]{ row, size + col, 2*size + area[i] };
+			/* Peers: the union of the three units, without i itself */
+			int[] list = new int[3*size];
+			int k = 0;
+			seen[i] = true;
+			for(int u : unitsOf[i]){
+				for(int f : unit[u]){
+					if(!seen[f]){
+						seen[f] = true;
+						list[k++] = f;
+					}
+				}
+			}
+			peers[i] = Arrays.copyOf(list, k);
+			seen[i] = false;
+			for(int f : peers[i]) seen[f] = false;
+			/* Fields in i's area, except those in the same row or column */
+			k = 0;
+			for(int f : cells[area[i]]){
+				if(f / size != row && f % size != col) list[k++] = f;
+			}
+			boxOnly[i] = Arrays.copyOf(list, k);
+		}
+		outsidersRow = new int[size][size][];
+		outsidersCol = new int[size][size][];
+		insidersRow = new int[size][size][];
+		insidersCol = new int[size][size][];
+		int[] in = new int[size];
+		int[] out = new int[size];
+		for(int a = 0; a < size; a++){
+			for(int r = 0; r < size; r++){
+				int kIn = 0, kOut = 0;
+				for(int f : unit[r]){				//Split row r
+					if(area[f] == a) in[kIn++] = f; else out[kOut++] = f;
+				}
+				insidersRow[a][r] = Arrays.copyOf(in, kIn);
+				outsidersRow[a][r] = Arrays.copyOf(out, kOut);
+				kIn = 0;
+				kOut = 0;
+				for(int f : unit[size + r]){		//Split column r
+					if(area[f] == a) in[kIn++] = f; else out[kOut++] = f;
+				}
+				insidersCol[a][r] = Arrays.copyOf(in, kIn);
+				outsidersCol[a][r] = Arrays.copyOf(out, kOut);
+			}
+		}
 	}
 	public int getAreaNumber(int i){
 		/* Return the areanumber of the field
@@ -50,77 +197,80 @@ class AreaMap{
 		 * */
 		return area[i];
 	}
+	public String toMapString(){
+		/* Return the map in the map file format,
+		 * one row per line
+		 * */
+		StringBuilder s = new StringBuilder();
+		for(int i = 0; i < size*size; i++){
+			s.append(area[i]);
+			s.append((i % size == size - 1) ? '\n' : ' ');
+		}
+		return s.toString();
+	}
 	public int getSize(){
 		/* Return the size of the map */
 		return size;
 	}
-	public Integer[] areas(){
+	public int[] areas(){
 		/* Return a list of all areanumbers */
-		ArrayList<Integer> list = new ArrayList<Integer>();
-		for(int f : area){
-			if(!(list.contains(f))){				//Add all areanumbers that not already in list
-				list.add(f);
-			}
-		}
-		Integer[] i = new Integer[list.size()];		//Convert the list to array
-		return list.toArray(i);						//and return the array
+		return areas;
 	}
-	public Integer[] outsidersRow(int row, int area){
-		/* Return a list of all field indexes 
+	public int[] outsidersRow(int row, int area){
+		/* Return a list of all field indexes
 		 * in row "row" that are not in area "area"
 		 * */
-		ArrayList<Integer> list = new ArrayList<Integer>();
-		for(int i = 0; i < size; i++){				//Scan through row
-			if(this.area[size*row+i] != area){		//if the field is not in area
-				list.add(size*row+i);				//add it
-			}
-		}
-		Integer[] i = new Integer[list.size()];		//Convert to array
-		return list.toArray(i);						//and return the array
+		return outsidersRow[area][row];
 	}
-	public Integer[] outsidersCol(int col, int area){
-		/* Return a list of all field indexes 
+	public int[] outsidersCol(int col, int area){
+		/* Return a list of all field indexes
 		 * in col "col" that are not in area "area"
 		 * */
-		ArrayList<Integer> list = new ArrayList<Integer>();
-		for(int i = 0; i < size; i++){				//Scan through column
-			if(this.area[size*i+col] != area){		//If the field is not in area
-				list.add(size*i+col);				//add it
-			}
-		}
-		Integer[] i = new Integer[list.size()];		//Convert to array
-		return list.toArray(i);						//and return the array
+		return outsidersCol[area][col];
+	}
+	public int[] insidersRow(int row, int area){
+		/* Return a list of all field indexes
+		 * in row "row" that are in area "area"
+		 * */
+		return insidersRow[area][row];
+	}
+	public int[] insidersCol(int col, int area){
+		/* Return a list of all field indexes
+		 * in col "col" that are in area "area"
+		 * */
+		return insidersCol[area][col];
 	}
 	public int[] getAll(int areaNumber){
-		/* Returns the index of all fields in 
+		/* Returns the index of all fields in
 		 * area areaNumber
 		 * */
-		int[] indexes = new int[size];
-		int j = 0;
-		for(int i = 0; i < size*size; i++){			//Scan through the map
-			if(area[i] == areaNumber){				//If the field is in the correct area
-				indexes[j++] = i;					//add it
-				if(j >= size) break;				//there should never be more fields in an array than "size"
-			}
-		}
-		return indexes;
+		return cells[areaNumber];
 	}
-	public Integer[] get(int field){
-		/* Return the index of all fields in 
+	public int[] get(int field){
+		/* Return the index of all fields in
 		 * "field"'s area, except those in the same
 		 * row or column as field
 		 * */
-		int currentArea = area[field];									//Get the area of field
-		int currentRow = (int)(field / size);							//Get the row of field
-		int currentCol = (int)(field % size);							//Get the column of field
-		ArrayList<Integer> list = new ArrayList<Integer>();
-		for(int i = 0; i < size*size; i++){								//Scan through the map
-			if(area[i] == currentArea && (int)(i / size) != currentRow	//if i is in field's area but not it's
-					&& (int)(i % size) != currentCol){					//row or column,
-				list.add(i);											//add it
-			}
-		}
-		Integer[] i = new Integer[list.size()];							//Convert the list to array
-		return list.toArray(i);											//and return the array
+		return boxOnly[field];
+	}
+	public int[] peers(int field){
+		/* Return the index of all fields that share
+		 * a row, column or area with "field"
+		 * */
+		return peers[field];
+	}
+	public int units(){
+		/* Return the number of units (rows, columns and areas) */
+		return unit.length;
+	}
+	public int[] unit(int u){
+		/* Return the fields of unit u. Units 0 .. size-1 are
+		 * the rows, then come the columns and then the areas
+		 * */
+		return unit[u];
+	}
+	public int[] unitsOf(int field){
+		/* Return the row, column and area unit of "field" */
+		return unitsOf[field];
 	}
 }
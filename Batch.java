@@ -0,0 +1,136 @@
+/*Batch class
+ *
+ * Solves a file of standard 9x9 sudokus, one 81 character
+ * puzzle string per line (the format Board(String) reads),
+ * on several threads.
+ *
+ * The file is memory mapped and read with a PuzzleSource,
+ * so no String is made for each puzzle. It is streamed:
+ * at most "window" puzzles are read ahead of the one being
+ * written, so memory use doesn't depend on the size of
+ * the file. The solutions are written
+ * to standard output in input order, one per line, or
+ * FAILED. A summary with the throughput and latency
+ * percentiles is written to standard error at the end.
+ *
+ * If setStats() is given a Stats, the numbers of every
+ * solve are added to it. If setCache() is given a
+ * SolutionCache, the puzzles are looked up in it before
+ * they are solved, and its hit ratio is in the summary.
+ * If setTimeout() is given a time, a puzzle that takes
+ * longer is given up and written as TIMEOUT, so one hard
+ * puzzle can't hold up the rest of the batch. If
+ * setPortfolio() is given a Portfolio, each puzzle is
+ * raced by its configurations, and the summary tells how
+ * often each one won.
+ * */
+
+import java.io.* ;
+import java.util.ArrayDeque ;
+import java.util.concurrent.* ;
+
+class Batch{
+	private final Strategy strategy;
+	private final int threads;
+	private final Histogram latency = new Histogram();		//Solve time of each puzzle, in microseconds
+	private Stats total = null;
+	private SolutionCache cache = null;
+	private Portfolio portfolio = null;
+	private long timeout = 0;								//Milliseconds allowed for each puzzle, 0 for no limit
+
+	public Batch(int threads, Strategy strategy){
+		this.threads = threads;
+		this.strategy = strategy;
+	}
+	public void setStats(Stats total){
+		/* Add the Stats of every solve to total.
+		 * Time is measured if total.isTimed()
+		 * */
+		this.total = total;
+	}
+	public void setCache(SolutionCache cache){
+		this.cache = cache;
+	}
+	public void setPortfolio(Portfolio portfolio){
+		this.portfolio = portfolio;
+	}
+	public void setTimeout(long timeout){
+		/* Give up on each puzzle after timeout milliseconds */
+		this.timeout = timeout;
+	}
+	private String solve(Board b){
+		/* Solve one puzzle, and return the
+		 * solution line
+		 * */
+		long start = System.nanoTime();
+		String result = "FAILED";
+		b.setStrategy(strategy);
+		if(total != null) b.getStats().setTimed(total.isTimed());
+		if(timeout > 0) b.getLimits().setTimeout(timeout);
+		Board solved;
+		if(portfolio != null){
+			portfolio.solve(b);
+			solved = (b.getOutcome() == Limits.Outcome.SOLVED) ? b : null;
+		}else{
+			solved = (cache != null) ? cache.solve(b) : b.solveInPlace(false);
+		}
+		if(solved != null) result = solved.toPuzzleString();
+		else if(b.getOutcome() == Limits.Outcome.TIMED_OUT) result = "TIMEOUT";
+		if(total != null) total.add(b.getStats());
+		latency.add((System.nanoTime() - start) / 1000);
+		return result;
+	}
+	public void run(String fileName){
+		/* Solve every puzzle in fileName */
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		ArrayDeque<Future<String>> pending = new ArrayDeque<Future<String>>();
+		int window = 64*threads;
+		long solved = 0, failed = 0, timedOut = 0;
+		long start = System.nanoTime();
+		try(PuzzleSource in = new PuzzleSource(fileName, PuzzleSource.Format.lines, "");	//Every board shares map/9.map
+				PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out)))){
+			while(true){
+				boolean more = in.hasNext();
+				if(more){
+					Board b = in.next();					//Parsed here, solved on the pool
+					if(b == null){
+						pending.add(CompletableFuture.completedFuture("FAILED"));
+					}else{
+						pending.add(pool.submit(() -> solve(b)));
+					}
+				}
+				/* Write results in order, waiting when the window is full */
+				while(!pending.isEmpty() && (!more || pending.size() >= window || pending.peek().isDone())){
+					String result = pending.poll().get();
+					out.println(result);
+					if(result.equals("FAILED")) failed++;
+					else if(result.equals("TIMEOUT")) timedOut++;
+					else solved++;
+				}
+				if(!more) break;
+			}
+		}catch(FileNotFoundException e){
+			System.err.println("Could not find batch file \'" + fileName + "\'");
+			System.exit(-1);
+		}catch(IOException e){
+			System.err.println("Error reading batch file \'" + fileName + "\': " + e.getMessage());
+			System.exit(-1);
+		}catch(InterruptedException | ExecutionException e){
+			System.err.println("Batch solve failed: " + e);
+			System.exit(-1);
+		}finally{
+			pool.shutdown();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.err.println(summary(solved, failed, timedOut, seconds));
+	}
+	private String summary(long solved, long failed, long timedOut, double seconds){
+		long n = solved + failed + timedOut;
+		return String.format("%d puzzles (%d solved, %d failed%s) in %.3f s on %d threads: %.1f puzzles/s%n"
+				+ "latency: p50 %d us, p99 %d us, max %d us",
+				n, solved, failed, timeout > 0 ? ", " + timedOut + " timed out" : "", seconds, threads, n / seconds,
+				latency.percentile(50), latency.percentile(99), latency.max())
+				+ (cache != null ? "\n" + cache : "")
+				+ (portfolio != null ? "\n" + portfolio : "");
+	}
+}
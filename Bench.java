@@ -0,0 +1,164 @@
+/*Bench class
+ *
+ * A small benchmark harness, in the spirit of JMH, for
+ * the puzzles in sudoku/ and the hot paths of the solver.
+ *
+ * Every benchmark is run for a number of warmup iterations
+ * and then a number of measured iterations of a fixed time
+ * each. For each one it reports the average time per
+ * operation with its spread over the iterations, and the
+ * bytes allocated per operation and allocation rate, taken
+ * from the thread's allocation counter.
+ *
+ * usage: java Bench [-w warmup] [-i iterations] [-time ms] [filter]
+ * Only benchmarks whose name contains filter are run.
+ * */
+
+import java.io.File ;
+import java.lang.management.ManagementFactory ;
+import java.util.ArrayList ;
+import java.util.Arrays ;
+
+class Bench{
+	interface Op{
+		/* One operation to benchmark. The result is
+		 * kept, so the JIT can't throw the work away
+		 * */
+		Object run() throws Exception;
+	}
+	private static int warmup = 3;
+	private static int iterations = 5;
+	private static long iterationTime = 1000;		//ms
+	private static Object sink;
+	private static final com.sun.management.ThreadMXBean threads =
+		(com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+	private static long allocated(){
+		return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+	private static double[] iteration(Op op) throws Exception{
+		/* Run op for iterationTime. Returns
+		 * { ns per op, bytes per op }
+		 * */
+		long ops = 0;
+		long end = System.nanoTime() + iterationTime*1000000L;
+		long bytes = allocated();
+		long start = System.nanoTime();
+		long now;
+		do{
+			sink = op.run();
+			ops++;
+		}while((now = System.nanoTime()) < end);
+		bytes = allocated() - bytes;
+		return new double[]{ (double)(now - start) / ops, (double)bytes / ops };
+	}
+	private static void measure(String name, Op op){
+		double[] time = new double[iterations];
+		double bytes = 0;
+		try{
+			for(int i = 0; i < warmup; i++){
+				iteration(op);
+			}
+			for(int i = 0; i < iterations; i++){
+				double[] r = iteration(op);
+				time[i] = r[0];
+				bytes += r[1];
+			}
+		}catch(Exception e){
+			System.out.printf("%-40s failed: %s%n", name, e);
+			return;
+		}
+		bytes /= iterations;
+		double mean = 0;
+		for(double t : time) mean += t;
+		mean /= iterations;
+		double var = 0;
+		for(double t : time) var += (t - mean)*(t - mean);
+		double error = (iterations > 1) ? Math.sqrt(var / (iterations - 1)) : 0;
+		double rate = bytes / mean * 1e9 / (1 << 20);			//MB/s
+		System.out.printf("%-40s %14.1f +- %10.1f ns/op %12.0f B/op %10.1f MB/s%n", name, mean, error, bytes, rate);
+	}
+	private static String mapFor(String puzzleFile){
+		/* snake.sudoku goes with map/snake.map. Others
+		 * use the default map for their size
+		 * */
+		String name = new File(puzzleFile).getName().replace(".sudoku", "");
+		File map = new File("map/" + name + ".map");
+		return map.exists() ? map.getPath() : "";
+	}
+	public static void main(String[] args){
+		String filter = "";
+		for(int i = 0; i < args.length; i++){
+			if(args[i].equals("-w") && i+1 < args.length){
+				warmup = Integer.parseInt(args[++i]);
+			}else if(args[i].equals("-i") && i+1 < args.length){
+				iterations = Integer.parseInt(args[++i]);
+			}else if(args[i].equals("-time") && i+1 < args.length){
+				iterationTime = Long.parseLong(args[++i]);
+			}else{
+				filter = args[i];
+			}
+		}
+		String[] files = new File("sudoku").list();
+		Arrays.sort(files);
+		ArrayList<String> names = new ArrayList<String>();
+		ArrayList<Op> ops = new ArrayList<Op>();
+		for(String file : files){
+			if(!file.endsWith(".sudoku")) continue;
+			String puzzle = "sudoku/" + file;
+			String tag = file.replace(".sudoku", "");
+			final Board original = new Board(puzzle, mapFor(puzzle));
+			final int n = original.getSize()*original.getSize();
+			/* Whole solves */
+			names.add("solve:" + tag);
+			ops.add(() -> new Board(original).solveInPlace(false));
+			names.add("dlx:" + tag);
+			ops.add(() -> {
+				Board b = new Board(original);
+				return new DLX(b).solve() ? b : null;
+			});
+			names.add("sat:" + tag);
+			ops.add(() -> {
+				Board b = new Board(original);
+				return new SAT(b).solve() ? b : null;
+			});
+			/* The hot paths, on a board the scans have
+			 * settled. They do all their work, but
+			 * change nothing
+			 * */
+			final Board settled = new Board(original);
+			settled.setIncremental(false);
+			settled.setPatterns(Patterns.ALL);
+			try{
+				while(settled.scanOne() | settled.scanTwo() | settled.scanThree() | settled.scanFour() | settled.scanFive());
+			}catch(NoLegalCharactersException e){
+				System.err.println(puzzle + " has no solution");
+			}
+			names.add("scanOne:" + tag);
+			ops.add(() -> settled.scanOne());
+			names.add("scanTwo:" + tag);
+			ops.add(() -> settled.scanTwo());
+			names.add("scanThree:" + tag);
+			ops.add(() -> settled.scanThree());
+			names.add("scanFour:" + tag);
+			ops.add(() -> settled.scanFour());
+			names.add("scanFive:" + tag);
+			ops.add(() -> settled.scanFive());
+			names.add("copy:" + tag);
+			ops.add(() -> new Board(settled));
+			names.add("AreaMap.get:" + tag);
+			ops.add(() -> {
+				AreaMap area = settled.getArea();
+				int sum = 0;
+				for(int i = 0; i < n; i++){
+					sum += area.get(i).length;
+				}
+				return sum;
+			});
+		}
+		System.out.printf("%d warmup and %d measured iterations of %d ms%n", warmup, iterations, iterationTime);
+		for(int i = 0; i < names.size(); i++){
+			if(names.get(i).contains(filter)) measure(names.get(i), ops.get(i));
+		}
+	}
+}
@@ -5,36 +5,80 @@
  *
  * The solve() method runs the different scan-methods 
  * in a loop until there's nothing more to change.
- * If the board is not finished by then, it picks the first
- * field with more than one option, and calls itself for 
+ * If the board is not finished by then, it asks its Strategy
+ * for a field with more than one option, and calls itself for 
  * each of those options. This way, each possibility is 
  * tested, recursively.
  *
  * The solve() method returns a new Board object if the 
  * solve was successful. Otherwisw it returns null.
+ *
+ * solveInPlace() does the same search without copying
+ * the board. It records every change on a Trail and
+ * undoes back to the last choice when a choice fails.
  * */
 
 import java.io.* ;
 import java.util.* ;
+import java.util.concurrent.atomic.AtomicBoolean ;
+import java.util.function.IntFunction ;
 
 class Board{
+	private static final CArray DIGITS = CArray.of("123456789".toCharArray());	//The characters of Board(String)
 	private final int[][] ROW;
 	private final int[][] COL;
 	private Field[] field;
 	private AreaMap area = null;
 	private CArray charSet;
 	private int size;
+	private CSet defined;						//Scratch set used by scanOne() and check()
+	private Trail trail = null;					//Used by solveInPlace()
+	private Strategy strategy = new MRVStrategy();	//How to branch
+	private boolean incremental = true;			//Propagate with a queue instead of full scans
+	private Propagator queue = null;
+	private int maxSubset = Subsets.MAX;		//Largest naked or hidden subset to look for
+	private Subsets subsets = null;				//Used by scanFour()
+	private Stats.Technique[] techniques = Patterns.NONE;	//Patterns to look for, in order
+	private Patterns patterns = null;			//Used by scanFive()
+	private Stats stats = new Stats();
+	private AtomicBoolean stop = null;			//Set by someone else to abandon the search
+	private Limits limits = new Limits();		//Deadline, node budget and cancel flag
+	private Limits.Outcome outcome = null;		//How the last solve ended
+	private long solutions, limit;				//Used by search()
+	private int depth = 0;						//Depth in the search tree
+	private Board firstSolution;
+	/* The search stack, see search() */
+	private int frames = 0;
+	private int[] frameCell, frameCount, frameNext, frameMark;
+	private int[][] frameChoices;
+	private long[] frameHash, frameEntry;		//With a table: hash of the node after and before its scans
+	private long[] frameSolutions;				//With a table: solutions found before the node
+	private TranspositionTable table = null;	//States known to have no solution
+	private TranspositionTable.Hash hash = null;
+	private Checkpoint checkpoint = null;		//Where to save the search now and then
+	private String puzzle;						//The puzzle being searched, for the checkpoint
 
 	public Board(String puzzleString){
-		if(puzzleString.length() != 81){
+		/* Load a standard 9x9 sudoku from an 81 character
+		 * string. Characters other than 1-9 are empty fields
+		 * */
+		this(puzzleString, AreaMap.load("map/9.map", 9));
+	}
+	public Board(CharSequence puzzleString, AreaMap area){
+		/* Like Board(String), but uses an AreaMap that
+		 * has already been loaded. AreaMaps never change,
+		 * so many boards can share one. puzzleString can be
+		 * any CharSequence, so it doesn't have to be copied
+		 * into a String first
+		 * */
+		if(puzzleString.length() != 81 || area.getSize() != 9){
 			System.err.println("Could not parse puzzle string");
 			System.exit(-1);
 		}
 		size = 9;
 		field = new Field[81];
-		area = new AreaMap("map/9.map", size);
-		char[] cCharSet = {'1','2','3','4','5','6','7','8','9'};
-		charSet = new CArray(cCharSet);
+		this.area = area;
+		charSet = DIGITS;
 		for(int i = 0; i < 81; i++){
 			char c = puzzleString.charAt(i);
 			if(charSet.has(c))
@@ -51,49 +95,28 @@ class Board{
 				COL[i][j] = size*j + i;
 			}
 		}
+		defined = new CSet(size);
+		setStats(stats);							//Tell the fields
 	}
-	public Board(String puzzleFileName, String mapFileName){
-		/* The default constructor
+	public Board(CArray charSet, char[] cells, AreaMap area){
+		/* Create a board with the character set charSet,
+		 * where field i is cells[i], or undefined if cells[i]
+		 * is not in the character set
 		 * */
-		File puzzleFile = new File(puzzleFileName);
-		try{
-			Scanner s = new Scanner(puzzleFile);
-			String charSetString = "";
-			if(s.hasNext()){
-				charSetString = s.next();						//Get the character set
-			}else{
-				System.err.println("Error parsing puzzleFileName file \'" + puzzleFileName + "\'.");
-				System.err.println("Could not find character set");
-				System.exit(-1);
-			}
-			charSet = new CArray(charSetString.split(","));		//Convert charset to CArray
-			size = charSet.length();
-			field = new Field[size*size];						//initialize field array
-			for(int i = 0; i < size*size; i++){					//and fill it
-				if(s.hasNext()){
-					char c = s.next().charAt(0);
-					if(charSet.has(c)){
-						field[i] = new Field(charSet, c);		//with defined
-					}else{
-						field[i] = new Field(charSet);			//and undefined characters
-					}
-				}else{
-					System.err.println("Error parsing puzzleFileName file \'" + puzzleFileName + "\'.");
-					System.err.println("Not enough fields");
-					System.exit(-1);
-				}
-			}
-		} catch(FileNotFoundException e){
-			System.err.println("Could not find sudoku file \'" + puzzleFileName + "\'");
+		this.charSet = charSet;
+		this.area = area;
+		size = charSet.length();
+		if(cells.length < size*size || area.getSize() != size){
+			System.err.println("Size of puzzle does not match size of map");
 			System.exit(-1);
 		}
-		if(mapFileName.equals("")){								//If no map file is specified, use default
-			mapFileName = "map/" + size + ".map";				//map file for this size
-			System.out.println("Using default map file \'" + mapFileName + "\'");
-		}else{
-			System.out.println("Using custom map file \'" + mapFileName + "\'");
+		field = new Field[size*size];
+		for(int i = 0; i < size*size; i++){
+			if(charSet.has(cells[i]))
+				field[i] = new Field(charSet, cells[i]);
+			else
+				field[i] = new Field(charSet);
 		}
-		area = new AreaMap(mapFileName, size);					//Initialize the AreaMap	
 		/* Generate the ROW and COL arrays */
 		ROW = new int[size][size];
 		COL = new int[size][size];
@@ -103,6 +126,61 @@ class Board{
 				COL[i][j] = size*j + i;
 			}
 		}
+		defined = new CSet(size);
+		setStats(stats);
+	}
+	public static Board parse(String puzzle, IntFunction<AreaMap> maps){
+		/* Make a Board of a puzzle in the .sudoku format:
+		 * a comma separated character set, then size*size
+		 * tokens, where a token that is not in the character
+		 * set is an empty field. maps gives the AreaMap for
+		 * the size. Throws IllegalArgumentException if
+		 * there are too few or too many fields
+		 * */
+		String[] tokens = puzzle.trim().split("\\s+");
+		CArray charSet = CArray.of(tokens[0].split(","));
+		int size = charSet.length();
+		if(tokens.length != size*size + 1){
+			throw new IllegalArgumentException("puzzle has " + (tokens.length - 1) + " of " + size*size + " fields");
+		}
+		char[] cells = new char[size*size];
+		for(int i = 0; i < size*size; i++){
+			int c = charSet.indexOf(tokens[i + 1]);
+			cells[i] = (c >= 0) ? charSet.get(c) : '.';
+		}
+		return new Board(charSet, cells, maps.apply(size));
+	}
+	public Board(String puzzleFileName, String mapFileName){
+		/* The default constructor: load the one puzzle
+		 * in a .sudoku file, with the map in mapFileName,
+		 * or the default map for its size if it is ""
+		 * */
+		Board read = null;
+		try(PuzzleSource in = new PuzzleSource(puzzleFileName, PuzzleSource.Format.sudoku, mapFileName)){
+			if(!in.hasNext()) throw new IllegalArgumentException("Could not find character set");
+			read = in.next();
+			if(in.hasNext()) throw new IllegalArgumentException("puzzle has more than " + read.size*read.size + " fields");
+		}catch(FileNotFoundException e){
+			System.err.println("Could not find sudoku file \'" + puzzleFileName + "\'");
+			System.exit(-1);
+		}catch(IOException | IllegalArgumentException e){
+			System.err.println("Error parsing puzzleFileName file \'" + puzzleFileName + "\'.");
+			System.err.println(e.getMessage());
+			System.exit(-1);
+		}
+		if(mapFileName.equals("")){								//Say which map was used
+			System.out.println("Using default map file \'map/" + read.size + ".map\'");
+		}else{
+			System.out.println("Using custom map file \'" + mapFileName + "\'");
+		}
+		charSet = read.charSet;									//Take over what was read
+		size = read.size;
+		area = read.area;
+		field = read.field;
+		ROW = read.ROW;
+		COL = read.COL;
+		defined = new CSet(size);
+		setStats(stats);
 	}
 	public Board(Board original){
 		/* Copy constructor */
@@ -113,8 +191,22 @@ class Board{
 		for(int i = 0; i < size*size; i++){
 			field[i] = new Field(original.getField(i));
 		}
-		area = new AreaMap(original.getArea());
-		charSet = new CArray(original.getCharSet());
+		area = original.area;				//Neither ever changes,
+		charSet = original.charSet;			//so the copy shares them
+		defined = new CSet(size);
+		strategy = original.strategy;
+		stats = original.stats;
+		stats.copy();
+		depth = original.depth + 1;
+		stop = original.stop;
+		limits = original.limits;
+		incremental = original.incremental;
+		maxSubset = original.maxSubset;
+		techniques = original.techniques;
+		table = original.table;
+		if(original.queue != null){					//original has been propagated,
+			attachQueue();							//so the copy starts with an empty queue
+		}
 	}
 	public int[][] getROW(){
 		return ROW;
@@ -134,49 +226,150 @@ class Board{
 	public CArray getCharSet(){
 		return charSet;
 	}
-	private boolean scanOne() throws NoLegalCharactersException{
+	public void setStrategy(Strategy strategy){
+		this.strategy = strategy;
+	}
+	public Stats getStats(){
+		return stats;
+	}
+	public void setStats(Stats stats){
+		this.stats = stats;
+		for(Field f : field){
+			f.setStats(stats);
+		}
+		if(queue != null) queue.setStats(stats);
+	}
+	public void setStop(AtomicBoolean stop){
+		/* The search gives up as soon as stop is set.
+		 * Used by ParallelSearch when another task has
+		 * found the solution; see Limits for a deadline
+		 * or a cancel flag of your own
+		 * */
+		this.stop = stop;
+	}
+	public Limits getLimits(){
+		/* The limits of solves of this board, shared
+		 * with its copies. Set them before solving
+		 * */
+		return limits;
+	}
+	public void setLimits(Limits limits){
+		this.limits = limits;
+	}
+	public Limits.Outcome getOutcome(){
+		/* How the last solveInPlace(), solve() or
+		 * countSolutions() of this board ended, or null
+		 * if it hasn't been solved
+		 * */
+		return outcome;
+	}
+	public void setOutcome(Limits.Outcome outcome){
+		/* Record how a solve ended, for solvers that
+		 * search copies of the board (see Portfolio)
+		 * */
+		this.outcome = outcome;
+	}
+	public Limits.Outcome solve(long timeout, long nodeLimit, AtomicBoolean cancel){
+		/* Solve this board in place, giving up after
+		 * timeout milliseconds or nodeLimit nodes (0 for
+		 * no limit), or when cancel is set (null for
+		 * none). Returns SOLVED, FAILED if there is no
+		 * solution, TIMED_OUT or CANCELLED
+		 * */
+		limits = new Limits();
+		if(timeout > 0) limits.setTimeout(timeout);
+		if(nodeLimit > 0) limits.setNodeLimit(nodeLimit);
+		limits.setCancel(cancel);
+		solveInPlace(false);
+		return outcome;
+	}
+	private boolean stopped(){
+		/* Check if the search should give up */
+		return (stop != null && stop.get()) || limits.exceeded(stats.getNodes());
+	}
+	private void finish(boolean solved){
+		/* Record how a solve ended */
+		if(solved) outcome = Limits.Outcome.SOLVED;
+		else if(limits.stopped() != null) outcome = limits.stopped();
+		else if(stop != null && stop.get()) outcome = Limits.Outcome.CANCELLED;
+		else outcome = Limits.Outcome.FAILED;
+	}
+	public void setIncremental(boolean incremental){
+		/* Choose between the propagation queue (true)
+		 * and full scans on every pass (false)
+		 * */
+		this.incremental = incremental;
+	}
+	public boolean isIncremental(){
+		return incremental;
+	}
+	public void setSubsets(int maxSubset){
+		/* Look for naked and hidden subsets of up to
+		 * maxSubset fields (at most Subsets.MAX).
+		 * 0 switches them off
+		 * */
+		this.maxSubset = maxSubset;
+	}
+	public int getSubsets(){
+		return maxSubset;
+	}
+	public void setPatterns(Stats.Technique[] techniques){
+		/* Look for these fish and wing patterns (see
+		 * Patterns), in this order. An empty array
+		 * switches them off
+		 * */
+		this.techniques = techniques;
+	}
+	public Stats.Technique[] getPatterns(){
+		return techniques;
+	}
+	public void setTable(TranspositionTable table){
+		/* Skip states that table knows have no solution
+		 * in the in-place search, and add the ones found.
+		 * Copies of the board share the table
+		 * */
+		this.table = table;
+	}
+	public TranspositionTable getTable(){
+		return table;
+	}
+	private void attachQueue(){
+		/* Create the propagation queue and tell every field about it */
+		queue = new Propagator(field, area, maxSubset, techniques, stats);
+		for(int i = 0; i < size*size; i++){
+			field[i].setPropagator(queue, i);
+		}
+	}
+	boolean scanOne() throws NoLegalCharactersException{
 		/* This method searches through each field's
 		 * row, column and area for defined numbers.
 		 * These numbers are removed from the current field.
 		 * This process is repeated for all fields
 		 * */
 		boolean changed = false;
-		CArray defined = new CArray();
+		CSet defined = this.defined;
 		/* for every field in the board */
 		for(int i = 0; i < size*size; i++){
-			if(field[i].defined() != '\0') continue;
+			if(field[i].isDefined()) continue;
 			defined.empty();
-			int rowOffset = (int)(i / size);
-			int colOffset = (int)(i % size);
-			for(int j = 0; j < size; j++){
-				/* Collect defined characters in row */
-				if((rowOffset*size+j != i) && (field[rowOffset*size+j].defined() != '\0')){
-					defined.add(field[rowOffset*size+j].defined());
-				}
-				/* Collect defined characters in col */
-				if((size*j+colOffset != i) && (field[size*j+colOffset].defined() != '\0')){
-					defined.add(field[size*j+colOffset].defined());
-				}
-			}
-			/* Collect defined characters in area */
-			for(int f:area.get(i)){
-				if(field[f].defined() != '\0'){
-					defined.add(field[f].defined());
-				}
+			/* Collect defined characters in row, column and area */
+			for(int f : area.peers(i)){
+				int d = field[f].definedIndex();
+				if(d >= 0) defined.add(d);
 			}
 			/*and remove them from this field*/
 			if(field[i].canNotBe(defined)) changed = true;
 		}
 		return changed;
 	}
-	private boolean scanTwo(){
+	boolean scanTwo(){
 		/* This method checks if any character is only allowed
 		 * in one of the fields in its row, column or area.
 		 * If that's the case, that field is set to that character
 		 * */
 		boolean hasChanged = false;
 		/* Check every character */
-		for(char c : charSet.getCharArray()){
+		for(int c = 0; c < size; c++){
 			/* For each row/column */
 			for(int i = 0; i < size; i++){
 				int row = -1;
@@ -207,7 +400,7 @@ class Board{
 				/* if it's legal in only one field, set
 				 * that field to be that character
 				 * */
-				if(col >=0 && col < size && !field[col].isDefined()){
+				if(col >=0 && col < size*size && !field[col].isDefined()){
 					field[col].define(c);
 					hasChanged = true;
 				}
@@ -234,7 +427,7 @@ class Board{
 		}
 		return hasChanged;
 	}
-	private boolean scanThree() throws NoLegalCharactersException{
+	boolean scanThree() throws NoLegalCharactersException{
 		/* This method checks if any number is
 		 * legal only in one row or column of an
 		 * area. It then removes it from every field
@@ -244,22 +437,22 @@ class Board{
 		/* Iterate through each area in the board */
 		for(int a : area.areas()){
 			/* Then, for each possible character */
-			for(char c : charSet.getCharArray()){
+			for(int c = 0; c < size; c++){
 				boolean charDefined = false;
 				int row = -1;
 				int col = -1;
 				/* check if it's legal in only one row or column */
 				for(int f : area.getAll(a)){
-					if(field[f].defined() == c){
+					if(field[f].definedIndex() == c){
 						charDefined = true;
 						break;
 					}
 					if(field[f].canBe(c)){
-						row = (row < 0)? (int)(f / size) : size;
-						col = (col < 0)? (f % size) : size;
+						row = (row < 0 || row == f / size)? f / size : size;	//size: more than one
+						col = (col < 0 || col == f % size)? f % size : size;
 					}
 				} 
-				if(charDefined) break;
+				if(charDefined) continue;
 				/* If that's the case, remove it from 
 				 * all the others in the row */ 
 				if(row >= 0 && row < size){
@@ -276,136 +469,52 @@ class Board{
 		}
 		return hasChanged;
 	}
-	private boolean scanFour() throws NoLegalCharactersException{
-		/* This method scans the board looking
-		 * for twins, triplets and so on
+	boolean scanFour() throws NoLegalCharactersException{
+		/* This method scans every row, column and area
+		 * for naked and hidden subsets: twins, triplets
+		 * and quads
 		 * */
+		if(maxSubset < 2) return false;
+		if(subsets == null) subsets = new Subsets(field, size, maxSubset, stats);
+		subsets.setStats(stats);
 		boolean hasChanged = false;
-		for(int subSetSize = 2; subSetSize < size; subSetSize++){				//generate subsets (of charSet) of increasing size
-			int[] subSetIndex = new int[subSetSize];
-			for(int i = 0; i < subSetSize; i++)
-				subSetIndex[i] = i;
-			hasChanged = scanFourSubScan(subSetIndex);
-			int iMax = subSetSize - 1;
-			int i = iMax;
-			while(true){
-				for(;(i >= 0)&&((subSetIndex[i] >= size-1)||(i < iMax && subSetIndex[i] >= subSetIndex[i+1]-1)); i--){}
-				if(i < 0) break;
-				subSetIndex[i] += 1;
-				for(; i < iMax; i++){
-					subSetIndex[i+1] = subSetIndex[i] + 1;
-				}
-				if(scanFourSubScan(subSetIndex)) hasChanged = true;
-			}
+		for(int u = 0; u < area.units(); u++){
+			if(subsets.run(area.unit(u))) hasChanged = true;
 		}
 		return hasChanged;
 	}
-	private boolean scanFourSubScan(int[] subSetIndex) throws NoLegalCharactersException{
-		boolean hasChanged = false;
-		int subSetSize = subSetIndex.length;
-		ArrayList<Integer> twins; 
-		CArray thingy; 
-		CArray subSet = new CArray();
-		for(int i : subSetIndex)
-			subSet.add(charSet.get(i));
-		/* Scan each row, column and area for twins */
-		for(int i = 0; i < size; i++){
-			twins = new ArrayList<Integer>();
-			thingy = new CArray();
-			for(int f : ROW[i]){
-				if(field[f].isDefined() && subSet.has(field[f].defined())){
-					twins = new ArrayList<Integer>();
-					break;
-				}
-				if(subSet.hasAll(field[f].canBe())){
-					thingy.merge(field[f].canBe());
-					twins.add(f);
-				}
-			}
-			if(twins.size() == subSetSize){
-				for(int f : ROW[i]){
-					if(!twins.contains(f)){
-						if(field[f].canNotBe(subSet)) hasChanged = true;
-					}
-				}
-				if(hasChanged) return true;
-			}
-			twins = new ArrayList<Integer>();
-			thingy = new CArray();
-			for(int f : COL[i]){
-				if(field[f].isDefined() && subSet.has(field[f].defined())){
-					twins = new ArrayList<Integer>();
-					break;
-				}
-				if(subSet.hasAll(field[f].canBe())){
-					thingy.merge(field[f].canBe());
-					twins.add(f);
-				}
-			}
-			if(twins.size() == subSetSize){
-				for(int f : COL[i]){
-					if(!twins.contains(f)){
-						if(field[f].canNotBe(subSet)) hasChanged = true;
-					}
-				}
-				if(hasChanged) return true;
-			}
-		}
-		for(int a : area.areas()){
-			twins = new ArrayList<Integer>();
-			thingy = new CArray();
-			for(int f : area.getAll(a)){
-				if(field[f].isDefined() && subSet.has(field[f].defined())){
-					twins = new ArrayList<Integer>();
-					break;
-				}
-				if(subSet.hasAll(field[f].canBe())){
-					thingy.merge(field[f].canBe());
-					twins.add(f);
-				}
-			}
-			if(twins.size() == subSetSize){
-				for(int f : area.getAll(a)){
-					if(!twins.contains(f)){
-						if(field[f].canNotBe(subSet)) hasChanged = true;
-					}
-				}
-				if(hasChanged) return true;
-			}
-		}
-		return hasChanged;
+	boolean scanFive() throws NoLegalCharactersException{
+		/* This method scans the board for X-Wings,
+		 * Swordfish and XY-Wings
+		 * */
+		if(techniques.length == 0) return false;
+		if(patterns == null) patterns = new Patterns(field, area, techniques, stats);
+		patterns.setStats(stats);
+		return patterns.run();
 	}
 	public boolean check(){
 		/* Checks if the defined numbers
 		 * in the board follow the sudoku
 		 * rules
 		 * */
+		CSet definedChars = this.defined;
 		for(int i = 0; i < size; i++){
-			CArray row = new CArray();
-			CArray col = new CArray();
+			definedChars.empty();
 			for(int f : ROW[i]){
-				char r = field[f].defined();
-				if(r != '\0'){
-					if(row.has(r)) return true;
-					row.add(r);
-				}
+				int r = field[f].definedIndex();
+				if(r >= 0 && !definedChars.add(r)) return true;
 			}
+			definedChars.empty();
 			for(int f : COL[i]){
-				char c = field[f].defined();
-				if(c != '\0'){
-					if(col.has(c)) return true;
-					col.add(c);
-				}
+				int c = field[f].definedIndex();
+				if(c >= 0 && !definedChars.add(c)) return true;
 			}
 		}
 		for(int a : area.areas()){
-			CArray definedChars = new CArray();
+			definedChars.empty();
 			for(int f : area.getAll(a)){
-				char c = field[f].defined();
-				if(c != '\0'){
-					if(definedChars.has(c)) return true;
-					definedChars.add(c);
-				}
+				int c = field[f].definedIndex();
+				if(c >= 0 && !definedChars.add(c)) return true;
 			}
 		}
 		return false;
@@ -416,68 +525,436 @@ class Board{
 		}
 		return true;
 	}
-	public Board solve(boolean verbose){
-		/* The solve() method runs the different scan-methods 
-		 * in a loop until there's nothing more to change.
-		 * If the board is not finished by then, it picks the first
-		 * field with more than one option, and calls itself for 
-		 * each of those options. This way, each possibility is 
-		 * tested, recursively.
+	public boolean reduce(){
+		/* Run the scans until they are stuck, without
+		 * searching, for the engines that do their own
+		 * search. Returns false if the board turned out
+		 * to be impossible, or a limit was passed
+		 * */
+		return propagate();
+	}
+	private boolean propagate(){
+		/* Runs the different scan-methods in a loop until
+		 * there's nothing more to change. Returns false if
+		 * the board turned out to be impossible.
 		 *
-		 * The solve() method returns a new Board object if the 
-		 * solve was successful. Otherwisw it returns null.
+		 * In incremental mode, the Propagator does the same
+		 * work, but only for the fields that have changed
+		 * since the last time
 		 * */
+		if(incremental){
+			if(queue == null){
+				attachQueue();
+				queue.queueAll();
+			}
+			try{
+				return queue.run(limits);
+			}catch(NoLegalCharactersException e){
+				return false;
+			}
+		}
 		boolean hasChanged;
-		Board solved, copy;
 		/* Loop until there's nothing more to do */
 		do{
 			do{
+				if(limits.exceeded(stats.getNodes())) return false;
 				hasChanged = false;
 				try{
-					while(scanOne()) hasChanged = true;
-					while(scanTwo()) hasChanged = true;
-					while(scanThree()) hasChanged = true;
+					while(scan(Stats.Scan.singles)) hasChanged = true;
+					while(scan(Stats.Scan.hiddenSingles)) hasChanged = true;
+					while(scan(Stats.Scan.pointing)) hasChanged = true;
 				}catch(NoLegalCharactersException e){
-					return null;
+					return false;
 				}
 			}while(hasChanged);
-			/* Try scanFour */
-			/*
+			/* Try scanFour, and then scanFive */
 			try{
-				hasChanged = scanFour();
+				hasChanged = scan(Stats.Scan.subsets) || scan(Stats.Scan.patterns);
 			}catch(NoLegalCharactersException e){
-				return null;
-			}*/
+				return false;
+			}
 		}while(hasChanged);
-		if(check()) return null;
+		return !check();
+	}
+	private boolean scan(Stats.Scan s) throws NoLegalCharactersException{
+		/* Run the scan method for s, and
+		 * count it in the Stats
+		 * */
+		long before = stats.getEliminations();
+		long start = stats.start();
+		try{
+			switch(s){
+				case singles:		return scanOne();
+				case hiddenSingles:	return scanTwo();
+				case pointing:		return scanThree();
+				case subsets:		return scanFour();
+				default:			return scanFive();
+			}
+		}finally{
+			stats.scan(s, before, start);
+		}
+	}
+	private void printProgress(){
+		for(int i = 0; i < size; i++)
+			System.out.print("**");
+		System.out.println("\n" + toString());
+	}
+	public Board solve(boolean verbose){
+		/* The solve() method runs the different scan-methods 
+		 * in a loop until there's nothing more to change.
+		 * If the board is not finished by then, it asks the Strategy
+		 * for a field with more than one option, and calls itself for 
+		 * each of those options. This way, each possibility is 
+		 * tested, recursively.
+		 *
+		 * The solve() method returns a new Board object if the 
+		 * solve was successful. Otherwisw it returns null.
+		 * getOutcome() tells why.
+		 * */
+		if(depth > 0) return copySearch(verbose);
+		limits.reset();
+		Board solved = copySearch(verbose);
+		finish(solved != null);
+		return solved;
+	}
+	private Board copySearch(boolean verbose){
+		/* The recursive part of solve() */
+		Board solved, copy;
+		if(stopped()) return null;
+		stats.node(depth);
+		if(!propagate()) return null;
 		/* are we done? */
 		if(finished()) return this;
-		if(verbose){
-			for(int i = 0; i < size; i++)
-				System.out.print("**");
-			System.out.println("\n" + toString());
+		if(verbose) printProgress();
+		int i = strategy.pick(this);					//Pick a field that is undefined
+		int[] choices = new int[size];
+		int n = strategy.order(this, i, choices);
+		for(int k = 0; k < n; k++){						//Try each possibility
+			copy = new Board(this);
+			copy.getField(i).define(choices[k]);
+			solved = copy.copySearch(verbose);
+			if(solved != null) return solved;			//Succeed
+			if(stopped()) return null;
+			stats.backtrack();
 		}
-		for(int i = 0; i < size*size; i++){
-			if(!field[i].isDefined()){					//Pick a field that is undefined
-				copy = new Board(this);
-				CArray choices = new CArray(copy.getField(i).canBe());
-				for(char c : choices.getCharArray()){	//Try each possibility
-					copy.getField(i).define(c);
-					solved = copy.solve(verbose);
-					if(solved != null) return solved;	//Succeed
-					copy = new Board(this);
+		return null;									//or give up
+	}
+	public Board solveInPlace(boolean verbose){
+		/* Works like solve(), but searches this board in
+		 * place instead of copying it for every choice.
+		 * Every change is recorded on a trail, and undone
+		 * when a choice fails.
+		 *
+		 * Returns this board, solved, if the solve was
+		 * successful. Otherwise it returns null and the
+		 * board is left as it was after the first scans.
+		 * getOutcome() tells why: no solution, or a limit
+		 * was passed.
+		 * */
+		attachTrail();
+		attachHash();
+		solutions = 0;
+		limit = 1;
+		firstSolution = null;
+		if(depth == 0) limits.reset();
+		if(checkpoint != null) puzzle = toSudokuString();
+		boolean solved = search(verbose);
+		finish(solved);
+		return solved ? this : null;
+	}
+	public void setCheckpoint(Checkpoint checkpoint){
+		/* Save the state of solveInPlace() to checkpoint
+		 * as often as it asks, and when a limit stops it
+		 * */
+		this.checkpoint = checkpoint;
+	}
+	public Board resume(Checkpoint from, boolean verbose){
+		/* Go on with a solveInPlace() that was saved to
+		 * from, which must have been saved for this puzzle
+		 * with the same scans (see Checkpoint.board()).
+		 * The choices on the saved stack are made again,
+		 * and the search carries on from the last one, so
+		 * nothing that was searched is searched again.
+		 * Returns like solveInPlace()
+		 * */
+		attachTrail();
+		attachHash();
+		solutions = 0;
+		limit = 1;
+		firstSolution = null;
+		limits.reset();
+		puzzle = from.getPuzzle();
+		frames = 0;
+		for(int[] f : from.getFrames()){			//{ field, choices tried, choices... }
+			stats.node(depth);
+			int cell = f[0], next = f[1];
+			boolean propagated = propagate();
+			if(!propagated && limits.stopped() != null){	//Stopped while replaying: the file still holds
+				finish(false);							//the search, so leave it as it is
+				return null;
+			}
+			if(!propagated || cell < 0 || cell >= size*size || field[cell].isDefined()
+					|| next < 1 || next > f.length - 2 || !field[cell].canBe(f[next + 1])){
+				System.err.println("The checkpoint does not fit the puzzle");
+				System.exit(-1);
+			}
+			push(cell, (hash != null) ? hash.get() : 0);
+			frameCount[frames - 1] = f.length - 2;
+			System.arraycopy(f, 2, frameChoices[frames - 1], 0, f.length - 2);
+			frameNext[frames - 1] = next;
+			frameMark[frames - 1] = trail.mark();
+			field[cell].define(f[next + 1]);
+			depth++;
+		}
+		boolean solved = search(verbose);
+		finish(solved);
+		return solved ? this : null;
+	}
+	public long countSolutions(long limit){
+		/* Count the solutions of this board, searching
+		 * in place like solveInPlace(), but going on after
+		 * the first solution. Stops as soon as "limit"
+		 * solutions have been found, so a limit of 2 is a
+		 * quick check that the solution is unique.
+		 *
+		 * Returns the number of solutions found. The first
+		 * one can be had from getFirstSolution(). If a limit
+		 * was passed, the count is cut short and getOutcome()
+		 * tells which
+		 * */
+		attachTrail();
+		attachHash();
+		solutions = 0;
+		this.limit = limit;
+		firstSolution = null;
+		puzzle = null;									//Counts are not checkpointed
+		if(depth == 0) limits.reset();
+		boolean done = search(false);
+		finish(done || (solutions > 0 && limits.stopped() == null));
+		return solutions;
+	}
+	public Board getFirstSolution(){
+		/* Return a copy of the first solution
+		 * countSolutions() found, or null
+		 * */
+		return firstSolution;
+	}
+	private void attachHash(){
+		/* Hash the board, if there is a table, and
+		 * keep the hash up to date from now on
+		 * */
+		if(table == null) return;
+		if(hash == null){
+			hash = TranspositionTable.hash(area, field);
+			for(int i = 0; i < size*size; i++){
+				field[i].setHash(hash, i);
+			}
+		}else{
+			hash.rehash(field);
+		}
+	}
+	private void attachTrail(){
+		if(trail == null){
+			trail = new Trail(field);
+			for(int i = 0; i < size*size; i++){
+				field[i].setTrail(trail, i);
+			}
+		}
+	}
+	private boolean search(boolean verbose){
+		/* The search of solveInPlace(), resume() and
+		 * countSolutions(). Returns true when "limit"
+		 * solutions have been found, leaving the board
+		 * as the last of them.
+		 *
+		 * Instead of recursing, it keeps a stack of frames,
+		 * so a deep search can't overflow the Java stack and
+		 * the stack can be saved to a Checkpoint. Frame j
+		 * holds the field branched on at depth j, the
+		 * choices for it, and how many of them have been
+		 * tried; the board holds the last one tried. The
+		 * search carries on from any frames already on the
+		 * stack (see resume()).
+		 *
+		 * With a TranspositionTable, a node whose hash is in
+		 * the table is skipped, before and after its scans,
+		 * and a node whose scans fail or whose subtree has
+		 * been searched without a solution is added to it
+		 * */
+		int base = depth - frames;
+		boolean enter = true;							//The board is a node to look at
+		while(true){
+			if(enter){
+				depth = base + frames;
+				if(stopped()) return unwind(base);
+				if(checkpoint != null && checkpoint.due()) saveCheckpoint();
+				long entry = (table != null) ? hash.get() : 0;
+				if(table != null && table.failed(entry)){		//Known to fail
+					if(queue != null) queue.clear();		//Its changes won't be scanned
+				}else{
+					stats.node(depth);
+					if(!propagate()){
+						if(table != null && !stopped()) table.fail(entry);
+					}else if(finished()){						/* are we done? */
+						if(++solutions == 1 && limit > 1) firstSolution = new Board(this);
+						if(solutions >= limit){				//Succeed
+							frames = 0;
+							depth = base;
+							return true;
+						}
+					}else if(table != null && table.failed(hash.get())){
+						table.fail(entry);					//Its scans lead to a known failure
+					}else{
+						if(verbose) printProgress();
+						push(strategy.pick(this), entry);	//Pick a field that is undefined
+					}
+				}
+			}
+			/* Try the next choice of the top frame */
+			int f = frames - 1;
+			if(f < 0){										//or give up
+				depth = base;
+				return false;
+			}
+			if(frameNext[f] > 0){							//The last choice failed
+				trail.undo(frameMark[f]);
+				if(table != null) hash.set(frameHash[f]);
+				if(stopped()) return unwind(base);
+				stats.backtrack();
+			}
+			if(frameNext[f] < frameCount[f]){
+				frameMark[f] = trail.mark();
+				field[frameCell[f]].define(frameChoices[f][frameNext[f]++]);
+				enter = true;
+			}else{
+				if(table != null && solutions == frameSolutions[f]){	//Searched, and no solution
+					table.fail(frameHash[f]);
+					table.fail(frameEntry[f]);
 				}
-				break;									//or give up
+				frames--;
+				enter = false;
+			}
+		}
+	}
+	private void push(int i, long entry){
+		/* Push a frame for branching on field i,
+		 * with the choices the Strategy gives.
+		 * entry is the hash of the node before its
+		 * scans, if there is a table
+		 * */
+		if(frameCell == null){
+			int n = size*size + 1;
+			frameCell = new int[n];
+			frameCount = new int[n];
+			frameNext = new int[n];
+			frameMark = new int[n];
+			frameChoices = new int[n][];
+		}
+		if(frameChoices[frames] == null) frameChoices[frames] = new int[size];
+		frameCell[frames] = i;
+		frameCount[frames] = strategy.order(this, i, frameChoices[frames]);
+		frameNext[frames] = 0;
+		if(table != null){
+			if(frameHash == null){
+				frameHash = new long[frameCell.length];
+				frameEntry = new long[frameCell.length];
+				frameSolutions = new long[frameCell.length];
+			}
+			frameHash[frames] = hash.get();
+			frameEntry[frames] = entry;
+			frameSolutions[frames] = solutions;
+		}
+		frames++;
+	}
+	private boolean unwind(int base){
+		/* A limit stopped the search. Save it if there is
+		 * a checkpoint, and undo every choice on the stack
+		 * */
+		if(checkpoint != null) saveCheckpoint();
+		if(frames > 0){
+			trail.undo(frameMark[0]);
+			if(table != null) hash.set(frameHash[0]);
+		}
+		frames = 0;
+		depth = base;
+		return false;
+	}
+	private void saveCheckpoint(){
+		if(puzzle == null) return;						//Not a solveInPlace()
+		int[][] saved = new int[frames][];
+		for(int j = 0; j < frames; j++){
+			saved[j] = new int[frameCount[j] + 2];
+			saved[j][0] = frameCell[j];
+			saved[j][1] = frameNext[j];
+			System.arraycopy(frameChoices[j], 0, saved[j], 2, frameCount[j]);
+		}
+		checkpoint.save(puzzle, incremental, maxSubset, techniques, saved);
+	}
+	public Board[] branches(){
+		/* Runs the scans, then returns one copy of the
+		 * board for each option of the field the Strategy
+		 * picks, with that option defined. Returns null if
+		 * the board is impossible, and an empty array if
+		 * it is already finished
+		 * */
+		stats.node(depth);
+		if(!propagate()) return null;
+		if(finished()) return new Board[0];
+		int i = strategy.pick(this);
+		int[] choices = new int[size];
+		int n = strategy.order(this, i, choices);
+		Board[] children = new Board[n];
+		for(int k = 0; k < n; k++){
+			children[k] = new Board(this);
+			children[k].getField(i).define(choices[k]);
+		}
+		return children;
+	}
+	public String toPuzzleString(){
+		/* Return the board on one line, in the format
+		 * Board(String) reads, with '.' for undefined fields.
+		 * The tokens of a wide character set are separated
+		 * by spaces instead
+		 * */
+		if(charSet.isWide()){
+			StringBuilder s = new StringBuilder();
+			for(int i = 0; i < size*size; i++){
+				if(i > 0) s.append(' ');
+				s.append(field[i].isDefined() ? charSet.token(field[i].definedIndex()) : ".");
 			}
+			return s.toString();
+		}
+		char[] s = new char[size*size];
+		for(int i = 0; i < size*size; i++){
+			char c = field[i].defined();
+			s[i] = (c == '\0') ? '.' : c;
+		}
+		return new String(s);
+	}
+	public String toSudokuString(){
+		/* Return the board in the .sudoku file format:
+		 * the character set, then one row per line with
+		 * '.' for undefined fields
+		 * */
+		StringBuilder s = new StringBuilder();
+		for(int c = 0; c < size; c++){
+			if(c > 0) s.append(',');
+			s.append(charSet.token(c));
+		}
+		s.append("\n\n");
+		for(int i = 0; i < size*size; i++){
+			int c = field[i].definedIndex();
+			s.append((c < 0) ? "." : charSet.token(c));
+			s.append((i % size == size - 1) ? '\n' : ' ');
 		}
-		return null;
+		return s.toString();
 	}
 	public String toString(){
-		String s = "";
+		StringBuilder s = new StringBuilder();
 		for(int i = 0; i < size*size; i++){
-			s += field[i].toString();
-			if(i % size == size - 1 && i+1 < size*size) s += "\n";
+			s.append(field[i].toString());
+			if(i % size == size - 1 && i+1 < size*size) s.append('\n');
 		}
-		return s;
+		return s.toString();
 	}
 }
@@ -1,67 +1,142 @@
 /*CArray class
  *
- * This class is a wrapper around a 
+ * This class is a wrapper around a
  * char array. It provides a number of
  * methods that come in handy in the
  * javaSudoku program.
+ *
+ * A CArray never changes after it is made, so one
+ * can be shared by every Field and Board, and by all
+ * threads. of() interns them: the same characters give
+ * the same CArray, so a batch of puzzles with one
+ * character set only ever has one.
+ *
+ * Boards bigger than the alphabet need symbols of more
+ * than one character, like 1 .. 100. A character set made
+ * of tokens (see of(String[])) gives each token a char of
+ * its own from the Unicode private use area, so the rest of
+ * the program still works with chars, and token() gives the
+ * text back for printing. indexOf() looks the index up in a
+ * table instead of scanning, as it is called for every
+ * candidate removed.
  **/
 
-import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
 
 class CArray{
+	/* The interned character sets, by their tokens */
+	private static final ConcurrentHashMap<String, CArray> interned = new ConcurrentHashMap<String, CArray>();
+	private static final char TOKENS = '\uE000';		//The first char given to tokens
+	private static final int RANGE = 4096;				//Largest char range with a lookup table
 	/* The actual char array */
-	private char[] data;						
+	private final char[] data;
+	/* The text of each symbol */
+	private final String[] tokens;
+	private final boolean wide;						//Some token is longer than one character
+	private final int width;						//Length of the longest token
+	/* index[c - low] is the index of char c plus one, 0 if it's not in the array */
+	private final char low;
+	private final short[] index;
 
-	public CArray(){
-		/* Creates an empty CArray */
-		data = null;
-	}//CArray
-	public CArray(char c){
-		/* Creates a CArray with a single character */
-		data = new char[1];
-		data[0] = c;
-	}//CArray
-	public CArray(int size){
-		/* Creates a CArray (filled with '\0')
-		 * of size "size"
-		 * */
-		data = new char[size];
-		for(char x:data){
-			x = '\0';
-		}//for
-	}//CArray
 	public CArray(String[] chars){
 		/* Creates a CArray from an array of Strings.
-		 * uses the first character in each String.
+		 * If every String is one character, those are
+		 * the characters. Otherwise each String is a token,
+		 * and gets a char of its own
 		 * */
+		tokens = chars.clone();
+		boolean w = false;
+		for(String t : tokens){
+			if(t.length() != 1) w = true;
+		}//for
+		wide = w;
+		int longest = 0;
+		for(String t : tokens){
+			longest = Math.max(longest, t.length());
+		}//for
+		width = longest;
 		data = new char[chars.length];
 		for(int i = 0; i < chars.length; i++){
-			if(chars[i].length() >= 1){
-				data[i] = chars[i].charAt(0);
-			}else{
-				data[i] = '\0';
-			}
+			data[i] = wide ? (char)(TOKENS + i) : chars[i].charAt(0);
 		}//for
+		char[] range = range(data);
+		low = range[0];
+		index = table(data, low, range[1]);
 	}//CArray
 	public CArray(char[] chars){
-		/* Creates a CArray from a char array*/
-		data = chars;
-	}//CArray
-	public CArray(CArray original){
-		/* A copy constructor.
-		 * Creates a CArray identical to original
-		 **/
-		data = new char[original.length()];
-		for(int i = 0; i < original.length(); i++){
-			data[i] = original.get(i);
+		/* Creates a CArray from a char array.
+		 * The array is copied, so the caller can
+		 * go on using it
+		 * */
+		data = chars.clone();
+		tokens = new String[data.length];
+		for(int i = 0; i < data.length; i++){
+			tokens[i] = String.valueOf(data[i]);
 		}//for
+		wide = false;
+		width = 1;
+		char[] range = range(data);
+		low = range[0];
+		index = table(data, low, range[1]);
 	}//CArray
+	private static char[] range(char[] data){
+		/* Returns the lowest and highest char in data */
+		char lo = Character.MAX_VALUE, hi = 0;
+		for(char c : data){
+			if(c < lo) lo = c;
+			if(c > hi) hi = c;
+		}//for
+		return new char[]{ lo, hi };
+	}//range
+	private static short[] table(char[] data, char low, char high){
+		/* Builds the lookup table for indexOf(), or
+		 * returns null if the chars are too spread out
+		 * */
+		if(data.length == 0 || high - low >= RANGE) return null;
+		short[] index = new short[high - low + 1];
+		for(int i = data.length - 1; i >= 0; i--){		//The first of equal chars wins
+			index[data[i] - low] = (short)(i + 1);
+		}//for
+		return index;
+	}//table
+	public static CArray of(char[] chars){
+		/* Returns the interned CArray of chars */
+		return intern(new String(chars), () -> new CArray(chars));
+	}//of
+	public static CArray of(String[] chars){
+		/* Returns the interned CArray of the Strings
+		 * in chars, see CArray(String[]). Throws
+		 * IllegalArgumentException if one is empty or
+		 * appears twice
+		 * */
+		boolean single = true;
+		java.util.HashSet<String> seen = new java.util.HashSet<String>();
+		for(String t : chars){
+			if(t.isEmpty()) throw new IllegalArgumentException("empty symbol in the character set");
+			if(!seen.add(t)) throw new IllegalArgumentException("symbol " + t + " appears twice in the character set");
+			if(t.length() != 1) single = false;
+		}//for
+		if(single){
+			char[] c = new char[chars.length];
+			for(int i = 0; i < chars.length; i++) c[i] = chars[i].charAt(0);
+			return of(c);
+		}//if
+		return intern("," + String.join(",", chars), () -> new CArray(chars));	//Can't clash with a key of chars
+	}//of
+	private static CArray intern(String key, java.util.function.Supplier<CArray> make){
+		CArray c = interned.get(key);
+		if(c == null){
+			CArray made = make.get();
+			c = interned.putIfAbsent(key, made);
+			if(c == null) c = made;
+		}//if
+		return c;
+	}//intern
 	public String toString(){
 		/* Returns a String representation of the array */
-		if(data == null) return "null";
 		String s = "[ ";
-		for(char c : data){
-			String adds = (c != '\0')? c+" " : "\\0 ";
+		for(int i = 0; i < data.length; i++){
+			String adds = wide ? tokens[i] + " " : (data[i] != '\0') ? data[i] + " " : "\\0 ";
 			s += adds;
 		}//for
 		s += "]";
@@ -72,7 +147,7 @@ class CArray{
 		 * contains only one. otherwise
 		 * return '\0'
 		 * */
-		if(data != null && data.length == 1){
+		if(data.length == 1){
 			return data[0];
 		}else{
 			return '\0';
@@ -86,129 +161,64 @@ class CArray{
 		}//if
 		return data[i];
 	}//get
-	public void set(int i, char c){
-		/* set the character at the given index
-		 * to c
-		 * */
-		if(data == null || i < 0 || i >= data.length){
-			System.out.println("ERROR! CArray.set index out of range");
-			System.exit(-1);
-		}//if
-		data[i] = c;
-	}//set
 	public char[] getCharArray(){
-		/* Returns the data as a char array */
-		return data;
+		/* Returns a copy of the data as a char array */
+		return data.clone();
 	}//getCharArray
-	public void unique(){
-		/* Remove all duplicate items from array */
-		if(data == null) return;
-		CArray a = new CArray();
-		for(char c : data){
-			if(!a.has(c)) a.add(c);
-		}
-		data = a.getCharArray();
-	}
-	public void sort(){
-		/* Sorts the array and deletes
-		 * duplicate entries
+	public String token(int i){
+		/* Returns the text of the specified symbol */
+		return tokens[i];
+	}//token
+	public boolean isWide(){
+		/* Checks if some symbol is a token of more
+		 * than one character
 		 * */
-		if(data == null) return;					//Don't sort if it's empty
-		Arrays.sort(data);
-		unique();
-	}//sort
+		return wide;
+	}//isWide
+	public int width(){
+		/* Returns the length of the longest token */
+		return width;
+	}//width
 	public boolean has(char c){
 		/* Checks if the array contains character c */
-		if(data == null) return false;		//It doesn't contain the character if it's empty
-		for(char x:data){					//Check each character
-			if(x == c) return true;
-		}//for
-		return false;
+		return indexOf(c) >= 0;
 	}//has
+	public int indexOf(char c){
+		/* Returns the index of character c,
+		 * or -1 if the array doesn't contain it
+		 * */
+		if(index != null){
+			return (c < low || c - low >= index.length) ? -1 : index[c - low] - 1;
+		}//if
+		for(int i = 0; i < data.length; i++){
+			if(data[i] == c) return i;
+		}//for
+		return -1;
+	}//indexOf
+	public int indexOf(String token){
+		/* Returns the index of the symbol written as
+		 * token, or -1 if there is none. Of a set of
+		 * single characters, only the first character
+		 * of token counts
+		 * */
+		if(!wide) return token.isEmpty() ? -1 : indexOf(token.charAt(0));
+		for(int i = 0; i < tokens.length; i++){
+			if(tokens[i].equals(token)) return i;
+		}//for
+		return -1;
+	}//indexOf
 	public boolean hasAll(CArray chars){
-		if(data == null) return false;
-		for(char c : chars.getCharArray()){
-			boolean hasCharacter = false;
-			for(char cThis : data){
-				if(cThis == c) hasCharacter = true;
-			}
-			if(!hasCharacter) return false;
+		for(char c : chars.data){
+			if(!has(c)) return false;
 		}
 		return true;
 	}
 	public int length(){
 		/* Returns length of array */
-		return (data == null)? 0 : data.length;
+		return data.length;
 	}//length
-	public void add(char c){
-		/* Adds a single character to array */
-		int len = (data == null)? 0 : data.length;	//Get number of characters in old array
-		char[] bigger = new char[len + 1];			//Create new array that is one bigger
-		for(int i = 0; i < len; i++){
-			bigger[i] = data[i];					//Copy existing data, if any
-		}//for
-		bigger[len] = c;							//Add the new character at the last position
-		data = bigger;
-	}//add
-	public void add(CArray other){
-		/* Combines this and other to one big CArray */
-		if(data == null){							//If this CArray is empty, just overwrite it
-			data = other.getCharArray();
-		}//if
-			char[] bigger = new char[data.length + other.length()];
-			for(int i = 0; i < data.length; i++){	//Create new array big enough to hold both arrays' data
-				bigger[i] = data[i];				//Copy over the data from this CArray
-			}//for
-			for(int i = 0; i < other.length(); i++){
-				bigger[data.length + i] = other.get(i);
-			}//for
-			data = bigger;
-	}//add
-	public boolean del(char c){
-		/* Deletes all occurrences of c in array */
-		int hits = 0;
-		char[] smaller;
-		for(char x:data){
-			if(x == c){				//Search for c in data
-				hits++;
-			}//if
-		}//for
-		smaller = new char[data.length - hits];
-		int i = 0;					//Allocate new array
-		for(char x:data){
-			if(x != c){
-				smaller[i++] = x;	//Add all characters that are not c
-			}//if
-		}//for
-		data = smaller;
-		return (hits > 0);			//did we delete anything?
-	}//del
-	public boolean del(CArray other){
-		/* Deletes every instance of
-		 * every character in other
-		 * from array
-		 * */
-		if(other.isEmpty()) return false;	//nothing to delete
-		boolean hasDeleted = false;
-		for(char x:other.getCharArray()){	//For each character in other
-			if(del(x)) hasDeleted = true;	//delete it from this
-		}//for
-		return hasDeleted;					//did we delete anything?
-	}//del
-	public void merge(CArray other){
-		/* Adds all characters from other that isn't
-		 * already there. It also sorts the array
-		 * */
-		add(other);
-		unique();
-	}//merge
 	public boolean isEmpty(){
 		/* Checks if the array is empty */
-		return (data == null);
+		return (data.length == 0);
 	}//isEmpty
-	public void empty(){
-		/* Deletes all content */
-		data = null;
-	}//empty
 }
-
@@ -0,0 +1,234 @@
+/*CSet class
+ *
+ * A CSet is a set of candidates, stored as a bitmask.
+ * Bit i is set if the i'th character of the character
+ * set is a member. Alphabets of up to 64 characters fit
+ * in a single long, larger ones use several words.
+ *
+ * All the set operations work in place, so changing
+ * a CSet never allocates anything.
+ **/
+
+class CSet{
+	/* The bitmask, 64 candidates per word */
+	private final long[] bits;
+	/* Number of candidates this set can hold */
+	private final int capacity;
+
+	public CSet(int capacity){
+		/* Creates an empty CSet that can hold
+		 * the candidates 0 to capacity-1
+		 * */
+		this.capacity = capacity;
+		bits = new long[(capacity + 63) >>> 6];
+	}//CSet
+	public CSet(CSet original){
+		/* A copy constructor.
+		 * Creates a CSet identical to original
+		 **/
+		capacity = original.capacity;
+		bits = original.bits.clone();
+	}//CSet
+	public static CSet full(int capacity){
+		/* Creates a CSet containing all candidates
+		 * from 0 to capacity-1
+		 * */
+		CSet s = new CSet(capacity);
+		s.fill();
+		return s;
+	}//full
+	public int capacity(){
+		/* Returns the number of candidates the set can hold */
+		return capacity;
+	}//capacity
+	public boolean has(int i){
+		/* Checks if candidate i is in the set */
+		return (bits[i >>> 6] & (1L << i)) != 0;
+	}//has
+	public boolean add(int i){
+		/* Adds candidate i to the set.
+		 * Returns true if it was not already there
+		 * */
+		long old = bits[i >>> 6];
+		bits[i >>> 6] = old | (1L << i);
+		return (old & (1L << i)) == 0;
+	}//add
+	public boolean del(int i){
+		/* Removes candidate i from the set.
+		 * Returns true if it was there
+		 * */
+		long old = bits[i >>> 6];
+		bits[i >>> 6] = old & ~(1L << i);
+		return (old & (1L << i)) != 0;
+	}//del
+	public void set(int i){
+		/* Makes candidate i the only member of the set */
+		empty();
+		bits[i >>> 6] = 1L << i;
+	}//set
+	public void set(CSet other){
+		/* Overwrites this set with the content of other */
+		System.arraycopy(other.bits, 0, bits, 0, bits.length);
+	}//set
+	public int words(){
+		/* Returns the number of words in the bitmask */
+		return bits.length;
+	}//words
+	public void save(long[] dst, int offset){
+		/* Copies the bitmask into dst, starting at offset */
+		System.arraycopy(bits, 0, dst, offset, bits.length);
+	}//save
+	public void load(long[] src, int offset){
+		/* Overwrites the bitmask with the words
+		 * in src, starting at offset
+		 * */
+		System.arraycopy(src, offset, bits, 0, bits.length);
+	}//load
+	public void fill(){
+		/* Adds all candidates to the set */
+		for(int w = 0; w < bits.length; w++){
+			bits[w] = -1L;
+		}//for
+		if((capacity & 63) != 0){				//Clear the unused bits of the last word
+			bits[bits.length - 1] = (1L << capacity) - 1;
+		}//if
+	}//fill
+	public void empty(){
+		/* Deletes all content */
+		for(int w = 0; w < bits.length; w++){
+			bits[w] = 0;
+		}//for
+	}//empty
+	public boolean isEmpty(){
+		/* Checks if the set is empty */
+		for(long w : bits){
+			if(w != 0) return false;
+		}//for
+		return true;
+	}//isEmpty
+	public int count(){
+		/* Returns the number of candidates in the set */
+		int n = 0;
+		for(long w : bits){
+			n += Long.bitCount(w);
+		}//for
+		return n;
+	}//count
+	public int first(){
+		/* Returns the lowest candidate in the set,
+		 * or -1 if it's empty
+		 * */
+		return next(0);
+	}//first
+	public int next(int i){
+		/* Returns the lowest candidate that is
+		 * >= i, or -1 if there is none.
+		 * Iterate with
+		 *   for(int c = s.first(); c >= 0; c = s.next(c+1))
+		 * */
+		if(i >= capacity) return -1;
+		int w = i >>> 6;
+		long word = bits[w] & (-1L << i);
+		while(true){
+			if(word != 0) return (w << 6) + Long.numberOfTrailingZeros(word);
+			if(++w >= bits.length) return -1;
+			word = bits[w];
+		}//while
+	}//next
+	public int single(){
+		/* Returns the candidate if the set contains
+		 * exactly one, otherwise -1
+		 * */
+		int c = -1;
+		for(int w = 0; w < bits.length; w++){
+			long word = bits[w];
+			if(word == 0) continue;
+			if(c >= 0 || (word & (word - 1)) != 0) return -1;
+			c = (w << 6) + Long.numberOfTrailingZeros(word);
+		}//for
+		return c;
+	}//single
+	public boolean or(CSet other){
+		/* Adds all candidates in other to this set.
+		 * Returns true if anything was added
+		 * */
+		long changed = 0;
+		for(int w = 0; w < bits.length; w++){
+			long old = bits[w];
+			bits[w] = old | other.bits[w];
+			changed |= bits[w] ^ old;
+		}//for
+		return changed != 0;
+	}//or
+	public int union(CSet a, CSet b){
+		/* Overwrites this set with the candidates in a
+		 * or b. Returns the number of candidates
+		 * */
+		int n = 0;
+		for(int w = 0; w < bits.length; w++){
+			bits[w] = a.bits[w] | b.bits[w];
+			n += Long.bitCount(bits[w]);
+		}//for
+		return n;
+	}//union
+	public void orAnd(CSet a, CSet b){
+		/* Adds all candidates that are in both a and b */
+		for(int w = 0; w < bits.length; w++){
+			bits[w] |= a.bits[w] & b.bits[w];
+		}//for
+	}//orAnd
+	public boolean and(CSet other){
+		/* Removes all candidates that are not in other.
+		 * Returns true if anything was removed
+		 * */
+		long changed = 0;
+		for(int w = 0; w < bits.length; w++){
+			long old = bits[w];
+			bits[w] = old & other.bits[w];
+			changed |= bits[w] ^ old;
+		}//for
+		return changed != 0;
+	}//and
+	public boolean andNot(CSet other){
+		/* Removes all candidates that are in other.
+		 * Returns true if anything was removed
+		 * */
+		long changed = 0;
+		for(int w = 0; w < bits.length; w++){
+			long old = bits[w];
+			bits[w] = old & ~other.bits[w];
+			changed |= bits[w] ^ old;
+		}//for
+		return changed != 0;
+	}//andNot
+	public boolean intersects(CSet other){
+		/* Checks if the two sets have any candidate in common */
+		for(int w = 0; w < bits.length; w++){
+			if((bits[w] & other.bits[w]) != 0) return true;
+		}//for
+		return false;
+	}//intersects
+	public boolean hasAll(CSet other){
+		/* Checks if every candidate in other is in this set */
+		for(int w = 0; w < bits.length; w++){
+			if((other.bits[w] & ~bits[w]) != 0) return false;
+		}//for
+		return true;
+	}//hasAll
+	public boolean equals(Object o){
+		if(!(o instanceof CSet)) return false;
+		return java.util.Arrays.equals(bits, ((CSet)o).bits);
+	}//equals
+	public int hashCode(){
+		return java.util.Arrays.hashCode(bits);
+	}//hashCode
+	public String toString(){
+		/* Returns a String representation of the set */
+		String s = "[ ";
+		for(int c = first(); c >= 0; c = next(c + 1)){
+			s += c + " ";
+		}//for
+		s += "]";
+		return s;
+	}//toString
+}
@@ -0,0 +1,292 @@
+/*CanonicalForm class
+ *
+ * The canonical form of a standard 9x9 sudoku (the boxes of
+ * map/9.map). Two puzzles that are the same up to
+ *
+ *   - relabeling the digits
+ *   - transposing the grid
+ *   - swapping bands (rows of boxes), or rows inside a band
+ *   - swapping stacks (columns of boxes), or columns inside
+ *     a stack
+ *
+ * have the same canonical form, so a solution found for one
+ * can be mapped to the other.
+ *
+ * The canonical form is the transform of the puzzle that
+ * gives the smallest string, with the digits relabeled
+ * 1, 2, 3... in the order they first appear, and empty
+ * fields sorting after the digits. The string starts with
+ * the first band read column by column, so every column
+ * placed adds three digits to compare, and the rest is read
+ * row by row. The search puts the form together a column
+ * (later a row) at a time, trying the choices that look
+ * smallest first, and drops a transform as soon as it is
+ * bigger than the best so far. The transform that made the
+ * best is kept, so solutions can be mapped both ways.
+ *
+ * key() gives the form as 81 digits, row by row, with 0
+ * for empty fields.
+ * */
+
+class CanonicalForm{
+	private static final int EMPTY = 10;		//Empty fields sort after the digits
+	private static final int[][] ORDER = {		//The orders of the three rows of a band
+		{0, 1, 2}, {0, 2, 1}, {1, 0, 2}, {1, 2, 0}, {2, 0, 1}, {2, 1, 0} };
+	private final int[] grid = new int[81];		//The puzzle: 0 empty, 1-9 digits
+	private final int[] g = new int[81];		//grid, transposed or not
+	private final int[] best = new int[81];		//The smallest form so far, in reading order
+	private int open = 0;						//best[open..] is not known yet: anything goes
+	/* The transform being tried */
+	private boolean transpose;
+	private final int[] rows = new int[9];		//Output row R is row rows[R] of g
+	private final int[] cols = new int[9];		//Output column C is column cols[C] of g
+	private final int[] label = new int[10];	//label[d]: the new label of digit d, 0 if none yet
+	private int labels;							//Labels handed out
+	private final int[] fresh = new int[81];	//fresh[k]: the digit labeled at position k, to undo
+	private final int[][] colChoice = new int[9][9];	//The columns to try at each column of the search
+	private final long[][] colCode = new long[9][9];	//and their codes
+	private final int[][] rowChoice = new int[9][9];	//The same for rows
+	private final long[][] rowCode = new long[9][9];
+	private final int[] line = new int[9];
+	/* The transform that made best */
+	private boolean bestTranspose;
+	private final int[] bestRows = new int[9];
+	private final int[] bestCols = new int[9];
+	private final int[] bestLabel = new int[10];
+
+	public CanonicalForm(Board board){
+		/* Find the canonical form of board, which must be
+		 * 9x9 with standard boxes (see fits())
+		 * */
+		for(int i = 0; i < 81; i++){
+			grid[i] = board.getField(i).definedIndex() + 1;
+		}
+		for(int t = 0; t < 2; t++){
+			transpose = (t == 1);
+			for(int i = 0; i < 81; i++){
+				g[i] = transpose ? grid[(i % 9)*9 + i/9] : grid[i];
+			}
+			for(int b = 0; b < 3; b++){
+				for(int[] order : ORDER){
+					for(int x = 0; x < 3; x++){
+						rows[x] = 3*b + order[x];
+					}
+					column(0, 0, 0);
+				}
+			}
+		}
+		/* Give the digits that aren't in the puzzle the
+		 * labels that are left, in order
+		 * */
+		int next = 0;
+		for(int d = 1; d <= 9; d++){
+			if(bestLabel[d] == 0) next++;
+		}
+		next = 9 - next;								//Labels 1..next are taken
+		for(int d = 1; d <= 9; d++){
+			if(bestLabel[d] == 0) bestLabel[d] = ++next;
+		}
+	}
+	public static boolean fits(Board board){
+		/* Check if board is 9x9 with the standard boxes */
+		if(board.getSize() != 9) return false;
+		AreaMap area = board.getArea();
+		int[] boxOf = new int[9];
+		java.util.Arrays.fill(boxOf, -1);
+		for(int i = 0; i < 81; i++){
+			int box = (i/27)*3 + (i % 9)/3;
+			int a = area.getAreaNumber(i);
+			if(boxOf[box] < 0) boxOf[box] = a;
+			else if(boxOf[box] != a) return false;
+		}
+		for(int x = 0; x < 9; x++){
+			for(int y = x + 1; y < 9; y++){
+				if(boxOf[x] == boxOf[y]) return false;
+			}
+		}
+		return true;
+	}
+	private boolean place(int k, int v){
+		/* Put digit v (0 for empty) at position k of the
+		 * form being built. Returns false if that makes it
+		 * bigger than best, so the transform can be dropped
+		 * */
+		int l = (v == 0) ? EMPTY : label[v];
+		fresh[k] = 0;
+		if(v != 0 && l == 0){
+			l = labels + 1;
+		}
+		if(k < open){
+			if(l > best[k]) return false;
+			if(l < best[k]) open = k;				//A new best. Everything after k is open again
+		}
+		if(k >= open){
+			best[k] = l;
+			open = k + 1;
+		}
+		if(v != 0 && label[v] == 0){
+			label[v] = ++labels;
+			fresh[k] = v;
+		}
+		return true;
+	}
+	private void unplace(int from, int to){
+		/* Take back the labels handed out at
+		 * positions from..to-1
+		 * */
+		for(int k = from; k < to; k++){
+			if(fresh[k] != 0){
+				label[fresh[k]] = 0;
+				labels--;
+			}
+		}
+	}
+	private long code(int[] line, int n){
+		/* The labels the n digits in line would get if
+		 * they were placed next, packed so that smaller
+		 * codes come first. Used to try the likely winners
+		 * first, which lets place() drop the others early
+		 * */
+		long code = 0;
+		int next = labels;
+		for(int j = 0; j < n; j++){
+			int v = line[j];
+			code = code*11 + ((v == 0) ? EMPTY : (label[v] != 0) ? label[v] : ++next);
+		}
+		return code;
+	}
+	private static int sort(int[] cand, long[] code, int n){
+		/* Sort the first n candidates by code */
+		for(int i = 1; i < n; i++){
+			for(int j = i; j > 0 && code[j] < code[j-1]; j--){
+				long t = code[j]; code[j] = code[j-1]; code[j-1] = t;
+				int u = cand[j]; cand[j] = cand[j-1]; cand[j-1] = u;
+			}
+		}
+		return n;
+	}
+	private void column(int c, int stacks, int inStack){
+		/* Choose the column of g for output column c, and
+		 * place its three fields of the first band. stacks
+		 * and inStack are bitmaps of the stacks used so far,
+		 * and of the columns used in the current stack
+		 * */
+		if(c == 9){
+			row(3, 1 << (rows[0]/3), 7 << (rows[0]/3*3));
+			return;
+		}
+		int[] cand = colChoice[c];
+		long[] code = colCode[c];
+		int n = 0;
+		for(int col = 0; col < 9; col++){
+			int s = col/3;
+			if(c % 3 == 0 ? (stacks & (1 << s)) != 0 : s != cols[c-1]/3 || (inStack & (1 << (col % 3))) != 0) continue;
+			for(int x = 0; x < 3; x++){
+				line[x] = g[rows[x]*9 + col];
+			}
+			cand[n] = col;
+			code[n++] = code(line, 3);
+		}
+		sort(cand, code, n);
+		for(int i = 0; i < n; i++){
+			int col = cand[i];
+			cols[c] = col;
+			int r = 0;
+			while(r < 3 && place(3*c + r, g[rows[r]*9 + col])) r++;
+			if(r == 3){
+				int s = col/3;
+				column(c + 1, stacks | (1 << s), (c % 3 == 2) ? 0 : inStack | (1 << (col % 3)));
+			}
+			unplace(3*c, 3*c + r);
+		}
+	}
+	private void row(int r, int bands, int used){
+		/* Choose the row of g for output row r (3 or more),
+		 * and place it. bands and used are bitmaps of the
+		 * bands and rows used so far
+		 * */
+		if(r == 9){									//This transform makes best
+			bestTranspose = transpose;
+			System.arraycopy(rows, 0, bestRows, 0, 9);
+			System.arraycopy(cols, 0, bestCols, 0, 9);
+			System.arraycopy(label, 0, bestLabel, 0, 10);
+			return;
+		}
+		int[] cand = rowChoice[r];
+		long[] code = rowCode[r];
+		int n = 0;
+		for(int rr = 0; rr < 9; rr++){
+			int b = rr/3;
+			if(r % 3 == 0 ? (bands & (1 << b)) != 0 : b != rows[r-1]/3) continue;
+			if((used & (1 << rr)) != 0) continue;
+			for(int c = 0; c < 9; c++){
+				line[c] = g[rr*9 + cols[c]];
+			}
+			cand[n] = rr;
+			code[n++] = code(line, 9);
+		}
+		sort(cand, code, n);
+		for(int i = 0; i < n; i++){
+			int rr = cand[i];
+			rows[r] = rr;
+			int c = 0;
+			while(c < 9 && place(9*r + c, g[rr*9 + cols[c]])) c++;
+			if(c == 9) row(r + 1, bands | (1 << (rr/3)), used | (1 << rr));
+			unplace(9*r, 9*r + c);
+		}
+	}
+	private static int position(int R, int C){
+		/* The position of output field (R, C) in
+		 * reading order
+		 * */
+		return (R < 3) ? 3*C + R : 9*R + C;
+	}
+	public String key(){
+		/* The canonical form, as 81 digits in the
+		 * usual order, row by row
+		 * */
+		char[] s = new char[81];
+		for(int i = 0; i < 81; i++){
+			int l = best[position(i/9, i % 9)];
+			s[i] = (l == EMPTY) ? '0' : (char)('0' + l);
+		}
+		return new String(s);
+	}
+	private int canonicalIndex(int i){
+		/* The field of the canonical form that
+		 * field i of the puzzle goes to
+		 * */
+		int r = i/9, c = i % 9;
+		if(bestTranspose){
+			int t = r;
+			r = c;
+			c = t;
+		}
+		int R = 0, C = 0;
+		while(bestRows[R] != r) R++;
+		while(bestCols[C] != c) C++;
+		return R*9 + C;
+	}
+	public String toCanonical(Board solved){
+		/* Map a solution of the puzzle to a solution
+		 * of the canonical form, as 81 digits
+		 * */
+		char[] s = new char[81];
+		for(int i = 0; i < 81; i++){
+			s[canonicalIndex(i)] = (char)('0' + bestLabel[solved.getField(i).definedIndex() + 1]);
+		}
+		return new String(s);
+	}
+	public void fromCanonical(String solution, Board board){
+		/* Map a solution of the canonical form back to
+		 * the puzzle, and define the fields of board
+		 * */
+		int[] digit = new int[10];					//The inverse of bestLabel
+		for(int d = 1; d <= 9; d++){
+			digit[bestLabel[d]] = d;
+		}
+		for(int i = 0; i < 81; i++){
+			board.getField(i).define(digit[solution.charAt(canonicalIndex(i)) - '0'] - 1);
+		}
+	}
+}
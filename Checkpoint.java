@@ -0,0 +1,179 @@
+/*Checkpoint class
+ *
+ * A file that a long Board.solveInPlace() is saved to now
+ * and then, so it can be resumed after the process is
+ * killed instead of starting over. It holds the puzzle,
+ * the map and the scans that were used, and the search
+ * stack: for each level, the field branched on, how many
+ * of its choices have been tried, and the choices. Fields
+ * and choices are numbers, so the file stays small even
+ * for a deep search on a big board:
+ *
+ *   JavaSudoku checkpoint
+ *   map map/25.map            (- for the default map)
+ *   incremental true
+ *   subsets 4
+ *   patterns none
+ *   frames 2
+ *   40 1 3 7                  (field, tried, choices...)
+ *   112 2 0 5 9
+ *   puzzle
+ *   A,B,C,...                 (as Board.toSudokuString())
+ *
+ * Everything before a choice was searched, so resuming
+ * makes the choices on the stack again and carries on.
+ * The file is written to a temporary file first and then
+ * renamed, so a kill while saving leaves the last one.
+ * */
+
+import java.io.* ;
+import java.nio.file.Files ;
+import java.nio.file.StandardCopyOption ;
+import java.util.ArrayList ;
+
+class Checkpoint{
+	private static final String HEADER = "JavaSudoku checkpoint";
+	private final String fileName;
+	private final long interval;				//Nanoseconds between saves
+	private long next;							//When the next save is due
+	private String mapFileName;					//"" for the default map
+	private String puzzle = null;
+	private boolean incremental = true;
+	private int maxSubset = Subsets.MAX;
+	private Stats.Technique[] techniques = Patterns.NONE;
+	private int[][] frames = new int[0][];
+	private long saves = 0;
+
+	public Checkpoint(String fileName, long seconds, String mapFileName){
+		/* Save to fileName every "seconds" seconds. The
+		 * puzzle uses the map in mapFileName, or the
+		 * default map for its size if it is ""
+		 * */
+		this.fileName = fileName;
+		this.mapFileName = mapFileName;
+		interval = seconds*1000000000L;
+		next = System.nanoTime() + interval;
+	}
+	public static Checkpoint load(String fileName, long seconds){
+		/* Read the checkpoint in fileName. Resuming
+		 * goes on saving to it every "seconds" seconds
+		 * */
+		Checkpoint c = new Checkpoint(fileName, seconds, "");
+		try(BufferedReader in = new BufferedReader(new FileReader(fileName))){
+			if(!HEADER.equals(in.readLine())) throw new IOException("not a checkpoint");
+			String map = value(in, "map");
+			c.mapFileName = map.equals("-") ? "" : map;
+			c.incremental = Boolean.parseBoolean(value(in, "incremental"));
+			c.maxSubset = Integer.parseInt(value(in, "subsets"));
+			c.techniques = Patterns.forNames(value(in, "patterns"));
+			if(c.techniques == null) throw new IOException("unknown patterns");
+			int n = Integer.parseInt(value(in, "frames"));
+			c.frames = new int[n][];
+			for(int j = 0; j < n; j++){
+				String[] line = in.readLine().trim().split("\\s+");
+				c.frames[j] = new int[line.length];
+				for(int k = 0; k < line.length; k++){
+					c.frames[j][k] = Integer.parseInt(line[k]);
+				}
+			}
+			if(!"puzzle".equals(in.readLine())) throw new IOException("no puzzle");
+			StringBuilder s = new StringBuilder();
+			String line;
+			while((line = in.readLine()) != null) s.append(line).append('\n');
+			c.puzzle = s.toString();
+		}catch(FileNotFoundException e){
+			System.err.println("Could not find checkpoint file \'" + fileName + "\'");
+			System.exit(-1);
+		}catch(IOException | RuntimeException e){
+			System.err.println("Could not read checkpoint file \'" + fileName + "\': " + e.getMessage());
+			System.exit(-1);
+		}
+		return c;
+	}
+	private static String value(BufferedReader in, String key) throws IOException{
+		/* Read a "key value" line */
+		String line = in.readLine();
+		if(line == null || !line.startsWith(key + " ")) throw new IOException("no " + key);
+		return line.substring(key.length() + 1).trim();
+	}
+	public Board board(){
+		/* Make the saved puzzle, with the saved scans,
+		 * ready for Board.resume()
+		 * */
+		Board b = null;
+		try{
+			b = Board.parse(puzzle, size -> AreaMap.load(mapFileName.equals("") ? "map/" + size + ".map" : mapFileName, size));
+		}catch(IllegalArgumentException e){
+			System.err.println("The puzzle in checkpoint file \'" + fileName + "\' is not complete: " + e.getMessage());
+			System.exit(-1);
+		}
+		b.setIncremental(incremental);
+		b.setSubsets(maxSubset);
+		b.setPatterns(techniques);
+		b.setCheckpoint(this);
+		return b;
+	}
+	public boolean due(){
+		/* Check if it is time to save */
+		return System.nanoTime() - next >= 0;
+	}
+	public String getPuzzle(){
+		return puzzle;
+	}
+	public int[][] getFrames(){
+		return frames;
+	}
+	public int depth(){
+		/* The number of choices on the saved stack */
+		return frames.length;
+	}
+	public long getSaves(){
+		return saves;
+	}
+	public void save(String puzzle, boolean incremental, int maxSubset, Stats.Technique[] techniques, int[][] frames){
+		/* Write a search with this stack to the file */
+		this.puzzle = puzzle;
+		this.incremental = incremental;
+		this.maxSubset = maxSubset;
+		this.techniques = techniques;
+		this.frames = frames;
+		next = System.nanoTime() + interval;
+		File file = new File(fileName);
+		File tmp = new File(fileName + ".tmp");
+		try(Writer out = new BufferedWriter(new FileWriter(tmp))){
+			out.write(HEADER + "\n");
+			out.write("map " + (mapFileName.equals("") ? "-" : mapFileName) + "\n");
+			out.write("incremental " + incremental + "\n");
+			out.write("subsets " + maxSubset + "\n");
+			ArrayList<String> names = new ArrayList<String>();
+			for(Stats.Technique t : techniques) names.add(t.name());
+			out.write("patterns " + (names.isEmpty() ? "none" : String.join(",", names)) + "\n");
+			out.write("frames " + frames.length + "\n");
+			StringBuilder line = new StringBuilder();
+			for(int[] f : frames){
+				line.setLength(0);
+				for(int k = 0; k < f.length; k++){
+					if(k > 0) line.append(' ');
+					line.append(f[k]);
+				}
+				out.write(line.append('\n').toString());
+			}
+			out.write("puzzle\n");
+			out.write(puzzle);
+		}catch(IOException e){
+			System.err.println("Could not write checkpoint file \'" + fileName + "\': " + e.getMessage());
+			return;
+		}
+		try{													//Replaces the last one in one step
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}catch(IOException e){
+			System.err.println("Could not write checkpoint file \'" + fileName + "\': " + e.getMessage());
+			return;
+		}
+		saves++;
+	}
+	public void delete(){
+		/* Remove the file, once the search is over */
+		new File(fileName).delete();
+	}
+}
@@ -0,0 +1,205 @@
+/*DLX class
+ *
+ * A second solving engine. It encodes a Board as an
+ * exact cover problem and solves it with Knuth's
+ * Algorithm X, using Dancing Links.
+ *
+ * There is one column for each constraint:
+ *   - every field holds a character
+ *   - every row, column and area holds every character
+ * and one row (an "option") for each character that is
+ * still legal in each field. The areas come from the
+ * board's AreaMap, so irregular maps work as well.
+ *
+ * The board's scans are run first, so the matrix only
+ * holds the candidates they leave: Algorithm X has nothing
+ * like pointing or subsets, and without them it takes
+ * minutes on a hard 25x25. The board's Limits are checked
+ * at every search node, so -timeout and a Portfolio can
+ * stop it.
+ *
+ * The links are kept in flat int arrays. Node 0 is the
+ * root, nodes 1 .. columns are the column headers and
+ * the option nodes follow.
+ * */
+
+class DLX{
+	private final Board board;
+	private final int size;
+	private int columns;
+	private int[] L, R, U, D;			//Links
+	private int[] C;					//Column header of each node
+	private int[] O;					//Option of each node
+	private int[] S;					//Number of nodes in each column
+	private int[] optionField;			//Field of each option
+	private int[] optionChar;			//Character index of each option
+	private int[] solution;				//Chosen node on each level
+	private int[] column;				//Column covered on each level
+	private long nodes = 0;				//Number of search nodes visited
+
+	public DLX(Board board){
+		this.board = board;
+		size = board.getSize();
+	}
+	private void build(){
+		/* Builds the exact cover matrix for board,
+		 * using the characters that are still legal
+		 * in each field
+		 * */
+		int n = size*size;
+		AreaMap area = board.getArea();
+		columns = 4*n;
+		int options = 0;
+		for(int i = 0; i < n; i++){
+			options += board.getField(i).count();
+		}
+		int total = 1 + columns + 4*options;
+		L = new int[total];
+		R = new int[total];
+		U = new int[total];
+		D = new int[total];
+		C = new int[total];
+		O = new int[total];
+		S = new int[columns + 1];
+		optionField = new int[options];
+		optionChar = new int[options];
+		solution = new int[n];
+		column = new int[n];
+		/* The root and the column headers form a circular list */
+		for(int c = 0; c <= columns; c++){
+			L[c] = (c == 0) ? columns : c - 1;
+			R[c] = (c == columns) ? 0 : c + 1;
+			U[c] = c;
+			D[c] = c;
+			C[c] = c;
+		}
+		/* Add one option for each legal character in each field */
+		int node = columns + 1;
+		int o = 0;
+		for(int i = 0; i < n; i++){
+			int row = i / size;
+			int col = i % size;
+			int a = area.getAreaNumber(i);
+			CSet legal = board.getField(i).canBe();
+			for(int c = legal.first(); c >= 0; c = legal.next(c+1)){
+				optionField[o] = i;
+				optionChar[o] = c;
+				int first = node;
+				int[] cols = {
+					1 + i,							//Field i is filled
+					1 + n + row*size + c,			//Row has c
+					1 + 2*n + col*size + c,			//Column has c
+					1 + 3*n + a*size + c			//Area has c
+				};
+				for(int k = 0; k < 4; k++){
+					int h = cols[k];
+					C[node] = h;
+					O[node] = o;
+					U[node] = U[h];					//Append to the bottom of column h
+					D[node] = h;
+					D[U[h]] = node;
+					U[h] = node;
+					S[h]++;
+					L[node] = (k == 0) ? node + 3 : node - 1;
+					R[node] = (k == 3) ? first : node + 1;
+					node++;
+				}
+				o++;
+			}
+		}
+	}
+	private void cover(int c){
+		/* Remove column c, and every option in it */
+		L[R[c]] = L[c];
+		R[L[c]] = R[c];
+		for(int i = D[c]; i != c; i = D[i]){
+			for(int j = R[i]; j != i; j = R[j]){
+				U[D[j]] = U[j];
+				D[U[j]] = D[j];
+				S[C[j]]--;
+			}
+		}
+	}
+	private void uncover(int c){
+		/* Put column c back, undoing cover(c) */
+		for(int i = U[c]; i != c; i = U[i]){
+			for(int j = L[i]; j != i; j = L[j]){
+				S[C[j]]++;
+				U[D[j]] = j;
+				D[U[j]] = j;
+			}
+		}
+		L[R[c]] = c;
+		R[L[c]] = c;
+	}
+	private boolean search(Limits limits){
+		/* Algorithm X. Returns true when every
+		 * column is covered. The levels are kept in
+		 * solution and column instead of on the call
+		 * stack, as a big board can be thousands of
+		 * levels deep
+		 * */
+		int k = 0;
+		boolean down = true;				//Going down to a new level, or back up
+		while(true){
+			if(down){
+				nodes++;
+				if(R[0] == 0) return true;	//Leave the links as they are
+				if(limits.exceeded(nodes)) return false;
+				/* Pick the column with the fewest options */
+				int c = R[0];
+				for(int j = R[c]; j != 0; j = R[j]){
+					if(S[j] < S[c]){
+						c = j;
+						if(S[c] <= 1) break;
+					}
+				}
+				if(S[c] > 0){
+					cover(c);
+					column[k] = c;
+					int r = D[c];
+					solution[k++] = r;
+					for(int j = R[r]; j != r; j = R[j]) cover(C[j]);
+					continue;
+				}
+			}
+			/* Back up to the last level and try its next option */
+			if(k == 0) return false;
+			k--;
+			int r = solution[k];
+			for(int j = L[r]; j != r; j = L[j]) uncover(C[j]);
+			r = D[r];
+			if(r != column[k]){
+				solution[k++] = r;
+				for(int j = R[r]; j != r; j = R[j]) cover(C[j]);
+				down = true;
+			}else{
+				uncover(column[k]);
+				down = false;
+			}
+		}
+	}
+	public boolean solve(){
+		/* Solve the board. If a solution is found it
+		 * is written back to the board's fields and true
+		 * is returned. Otherwise board.getLimits().stopped()
+		 * tells if a limit was passed
+		 * */
+		Limits limits = board.getLimits();
+		limits.reset();
+		if(!board.reduce()) return false;
+		build();
+		if(!search(limits)) return false;
+		int n = size*size;
+		for(int k = 0; k < n; k++){
+			int o = O[solution[k]];
+			Field f = board.getField(optionField[o]);
+			if(!f.isDefined()) f.define(optionChar[o]);
+		}
+		return true;
+	}
+	public long getNodes(){
+		/* Return the number of search nodes visited */
+		return nodes;
+	}
+}
@@ -2,7 +2,8 @@
  *
  * A Field object represents a single field on the sudoku board.
  * It contains a CArray of the character set used in the puzzle,
- * and a CArray of the characters that are legal in this field
+ * and a CSet of the characters that are legal in this field.
+ * Candidates in the CSet are indexes into the character set.
  * */
 
 class NoLegalCharactersException extends Exception {
@@ -13,14 +14,20 @@ class NoLegalCharactersException extends Exception {
 
 class Field{
 	private final CArray charSet;
-	private CArray legal;
+	private final CSet legal;
+	private Trail trail = null;				//Records changes when searching in place
+	private Propagator propagator = null;	//Told about every change
+	private Stats stats = null;				//Counts the candidates removed
+	private TranspositionTable.Hash hash = null;	//Kept up to date with every change
+	private int index;						//This field's index on the board
 
 	public Field(Field original){
 		/* Copy constructor. creates a new field
 		 * with identical data to original
 		 * */
-		charSet = new CArray(original.getCharSet());
-		legal = new CArray(original.getLegal());
+		charSet = original.charSet;			//Never changes, so it is shared
+		legal = new CSet(original.getLegal());
+		stats = original.stats;
 	}
 	public Field(CArray charSet){
 		/* Create an undefined Field. all characters
@@ -29,85 +36,177 @@ class Field{
 	}
 	public Field(CArray charSet, char c){
 		/* Initializes the Field. If c
-		 * is '\0', the field is undefined. If not, 
+		 * is '\0', the field is undefined. If not,
 		 * the field is defined to c
 		 * */
 		this.charSet = charSet;				//charSet is final, and can be assigned directly
+		legal = new CSet(charSet.length());
 		if(c == '\0'){						//If c is '\0', create an undefined field
-			legal = new CArray(charSet);	//legal will be modified, so we need to make a copy.
+			legal.fill();
 		}else{
-			if(!charSet.has(c)){
+			int i = charSet.indexOf(c);
+			if(i < 0){
 				System.out.println("ERROR! Could not create Field. \'" + c + "\' is not part of the character set.");
 				System.exit(-1);
 			}
-			legal = new CArray(c);			//create CArray with the single char c
+			legal.add(i);					//create a set with the single char c
 		}
 	}
 	public CArray getCharSet(){
 		/* Return charSet */
 		return charSet;
 	}
-	public CArray getLegal(){
+	public CSet getLegal(){
 		/* Return legal */
 		return legal;
 	}
+	public void setTrail(Trail trail, int index){
+		/* Record every change to this field on trail,
+		 * so it can be undone. index is the field's
+		 * position on the board
+		 * */
+		this.trail = trail;
+		this.index = index;
+	}
+	public void setPropagator(Propagator propagator, int index){
+		/* Tell propagator about every change to
+		 * this field. index is the field's
+		 * position on the board
+		 * */
+		this.propagator = propagator;
+		this.index = index;
+	}
+	public void setHash(TranspositionTable.Hash hash, int index){
+		/* XOR every candidate added to or removed from
+		 * this field into hash. index is the field's
+		 * position on the board
+		 * */
+		this.hash = hash;
+		this.index = index;
+	}
+	public void setStats(Stats stats){
+		this.stats = stats;
+	}
 	public void define(char c){
 		/* Reduce legal to contain only
 		 * the single character c
 		 * */
-		if(legal.has(c)){					//Check that c is allowed in this field
-			legal = new CArray(c);
+		define(charSet.indexOf(c));
+	}
+	public void define(int i){
+		/* Reduce legal to contain only
+		 * the candidate with index i
+		 * */
+		if(i >= 0 && legal.has(i)){			//Check that i is allowed in this field
+			if(legal.single() == i) return;
+			if(trail != null) trail.save(index);
+			if(stats != null) stats.eliminated(legal.count() - 1);
+			if(hash != null){
+				for(int c = legal.first(); c >= 0; c = legal.next(c + 1)){
+					if(c != i) hash.flip(index, c);
+				}
+			}
+			legal.set(i);
+			if(propagator != null) propagator.changed(index);
 		}else{
-			System.err.println("ERROR! could not define field as \'" + c + "\'. It is not a legal character");
+			System.err.println("ERROR! could not define field as \'" + (i >= 0 ? charSet.token(i) : "?") + "\'. It is not a legal character");
 			System.err.println("Legal characters are " + legal);
 			System.exit(-1);
 		}
 	}
 	public boolean isDefined(){
-		return (legal.length() == 1);
+		return (legal.single() >= 0);
 	}
 	public char defined(){
 		/* Check if this field is defined */
-		return legal.getChar();
+		int i = legal.single();
+		return (i < 0) ? '\0' : charSet.get(i);
 	}
-	public boolean canBeAllOf(CArray chars){
-		for(char c : chars.getCharArray())
-			if(!canBe(c)) return false;
-		return true;
+	public int definedIndex(){
+		/* Return the index of the defined
+		 * character, or -1 if the field is undefined
+		 * */
+		return legal.single();
+	}
+	public int count(){
+		/* Return the number of legal characters */
+		return legal.count();
 	}
-	public void canBe(CArray legal) throws NoLegalCharactersException{
+	public boolean canBeAllOf(CSet chars){
+		return legal.hasAll(chars);
+	}
+	public void canBe(CSet legal) throws NoLegalCharactersException{
 		/* Set the characters allowed in this field */
-		this.legal = legal;
+		if(trail != null) trail.save(index);
+		if(stats != null) stats.eliminated(this.legal.count() - legal.count());
+		if(hash != null){
+			for(int c = this.legal.first(); c >= 0; c = this.legal.next(c + 1)){
+				if(!legal.has(c)) hash.flip(index, c);
+			}
+			for(int c = legal.first(); c >= 0; c = legal.next(c + 1)){
+				if(!this.legal.has(c)) hash.flip(index, c);
+			}
+		}
+		this.legal.set(legal);
+		if(propagator != null) propagator.changed(index);
 		if(legal.isEmpty()) throw new NoLegalCharactersException("Field has no legal characters");
 	}
 	public boolean canBe(char c){
 		/* Check if character c is allowed in this field */
-		return legal.has(c);
+		int i = charSet.indexOf(c);
+		return (i >= 0) && legal.has(i);
 	}
-	public CArray canBe(){
-		/* Returns a list of characters that are allowed in this field */
+	public boolean canBe(int i){
+		/* Check if the candidate with index i is allowed in this field */
+		return legal.has(i);
+	}
+	public CSet canBe(){
+		/* Returns the set of candidates that are allowed in this field */
 		return legal;
 	}
-	public boolean canNotBe(CArray c) throws NoLegalCharactersException{
-		/* Remove all characters in CArray c from legal */
-		boolean returnValue = legal.del(c);
+	public boolean canNotBe(CSet c) throws NoLegalCharactersException{
+		/* Remove all candidates in c from legal */
+		if(!legal.intersects(c)) return false;
+		if(trail != null) trail.save(index);
+		int before = legal.count();
+		if(hash != null){
+			for(int j = c.first(); j >= 0; j = c.next(j + 1)){
+				if(legal.has(j)) hash.flip(index, j);
+			}
+		}
+		legal.andNot(c);
+		if(stats != null) stats.eliminated(before - legal.count());
 		if(legal.isEmpty()) throw new NoLegalCharactersException("Field has no legal characters");
-		return returnValue;
+		if(propagator != null) propagator.changed(index);
+		return true;
+	}
+	public boolean canNotBe(int i) throws NoLegalCharactersException{
+		/* remove the candidate with index i from legal */
+		if(!legal.has(i)) return false;
+		if(trail != null) trail.save(index);
+		if(hash != null) hash.flip(index, i);
+		legal.del(i);
+		if(stats != null) stats.eliminated(1);
+		if(legal.isEmpty()) throw new NoLegalCharactersException("Field has no legal characters");
+		if(propagator != null) propagator.changed(index);
+		return true;
 	}
 	public boolean canNotBe(char c) throws NoLegalCharactersException{
 		/* remove the character c from legal */
-		boolean returnValue = legal.del(c);
-		if(legal.isEmpty()) throw new NoLegalCharactersException("Field has no legal characters");
-		return returnValue;
+		int i = charSet.indexOf(c);
+		return (i >= 0) && canNotBe(i);
 	}
 	public String toString(){
 		if(legal.isEmpty()){
 			System.err.println("ERROR!");
 			return "ERROR! ";
 		}
-		if(isDefined())
-			return "" + defined() + " ";
-		else
-			return "  ";
+		/* Tokens are padded to the same width,
+		 * so the columns line up
+		 * */
+		String t = isDefined() ? charSet.token(definedIndex()) : "";
+		StringBuilder s = new StringBuilder(t);
+		while(s.length() <= charSet.width()) s.append(' ');
+		return s.toString();
 	}
 }
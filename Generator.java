@@ -0,0 +1,192 @@
+/*Generator class
+ *
+ * Makes new puzzles for a map, on several threads.
+ *
+ * Each puzzle starts as a full grid, filled in by solving
+ * an empty board with the characters tried in random order.
+ * Then the clues are removed one at a time, in random order.
+ * A clue is only left out if the solution stays unique: a
+ * puzzle with a unique solution S stays unique without the
+ * clue at field i exactly when there is no solution with
+ * field i different from S, so that is what gets searched
+ * for. That search gets a node budget, and the clue is
+ * kept if it runs out, so the puzzles are always unique even
+ * if they are not always minimal. Removal stops when the
+ * puzzle is down to the wanted number of clues, or no more
+ * clues can be removed.
+ *
+ * The puzzles are written as .sudoku files.
+ * */
+
+import java.io.* ;
+import java.util.Random ;
+import java.util.concurrent.* ;
+import java.util.concurrent.atomic.AtomicInteger ;
+
+class Generator{
+	public static final int MAX_DEFAULT_SIZE = 25;	//Bigger maps only when asked for, as they take too long
+	private final AreaMap area;
+	private final String name;				//Used to name the files
+	private final CArray charSet;
+	private final int size;
+	private final int clues;				//Stop removing at this many clues
+	private final String directory;
+	private final long budget;				//Nodes allowed for each uniqueness check
+
+	public Generator(String mapFileName, int clues, String directory){
+		/* Create a generator for the map in mapFileName.
+		 * The board size is worked out from the map
+		 * */
+		size = mapSize(mapFileName);
+		area = AreaMap.load(mapFileName, size);
+		name = new File(mapFileName).getName().replace(".map", "");
+		charSet = charSetFor(size);
+		this.clues = clues;
+		this.directory = directory;
+		budget = 4*size;
+	}
+	private static int mapSize(String mapFileName){
+		/* Count the numbers in the map file */
+		int n = 0;
+		try(java.util.Scanner s = new java.util.Scanner(new File(mapFileName))){
+			while(s.hasNextInt()){
+				s.nextInt();
+				n++;
+			}
+		}catch(FileNotFoundException e){
+			System.err.println("Could not find map file \'" + mapFileName + "\'");
+			System.exit(-1);
+		}
+		return (int)Math.round(Math.sqrt(n));
+	}
+	public int getSize(){
+		return size;
+	}
+	public static CArray charSetFor(int size){
+		/* The character set used for a board of this size:
+		 * 1-9 up to 9x9, 0-9 and A-F up to 16x16, letters
+		 * from A up to 52x52, and the numbers from 1 as
+		 * tokens above that
+		 * */
+		String chars;
+		if(size <= 9) chars = "123456789";
+		else if(size <= 16) chars = "0123456789ABCDEF";
+		else chars = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+		if(size > chars.length()){
+			String[] tokens = new String[size];
+			for(int i = 0; i < size; i++) tokens[i] = String.valueOf(i + 1);
+			return CArray.of(tokens);
+		}
+		return CArray.of(chars.substring(0, size).toCharArray());
+	}
+	private Board board(char[] cells){
+		return new Board(charSet, cells, area);
+	}
+	public Board generate(Random random){
+		/* Make one puzzle */
+		int n = size*size;
+		char[] cells = new char[n];
+		java.util.Arrays.fill(cells, '.');
+		/* Fill a grid at random */
+		Board full = board(cells);
+		full.setStrategy(new RandomStrategy(random.nextLong()));
+		if(full.solveInPlace(false) == null){				//Only if no grid fits the map
+			throw new IllegalStateException("could not fill a grid for map " + name + " (" + full.getOutcome() + ")");
+		}
+		for(int i = 0; i < n; i++){
+			cells[i] = full.getField(i).defined();
+		}
+		/* Remove clues in random order */
+		int[] order = new int[n];
+		for(int i = 0; i < n; i++) order[i] = i;
+		for(int k = n - 1; k > 0; k--){
+			int j = random.nextInt(k + 1);
+			int t = order[k];
+			order[k] = order[j];
+			order[j] = t;
+		}
+		int left = n;
+		for(int k = 0; k < n && left > clues; k++){
+			int i = order[k];
+			char c = cells[i];
+			cells[i] = '.';
+			if(unique(cells, i, c)){
+				left--;
+			}else{
+				cells[i] = c;						//Needed, put it back
+			}
+		}
+		return board(cells);
+	}
+	private boolean unique(char[] cells, int i, char c){
+		/* The puzzle with clue c at field i has a unique
+		 * solution. Check that it still has one with
+		 * field i left empty
+		 * */
+		Board b = board(cells);
+		try{
+			if(!b.getField(i).canNotBe(c)) return true;
+		}catch(NoLegalCharactersException e){
+			return true;
+		}
+		b.getLimits().setNodeLimit(budget);
+		b.solveInPlace(false);
+		return b.getOutcome() == Limits.Outcome.FAILED;		//No other solution, unless we gave up
+	}
+	public void run(int count, int threads){
+		/* Make "count" puzzles on "threads" threads and
+		 * write them to the directory. If a worker fails,
+		 * the others stop too, and the number of puzzles
+		 * that were written is reported
+		 * */
+		new File(directory).mkdirs();
+		AtomicInteger next = new AtomicInteger(0);
+		AtomicInteger written = new AtomicInteger(0);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		java.util.ArrayList<Future<Void>> workers = new java.util.ArrayList<Future<Void>>();
+		long start = System.nanoTime();
+		for(int t = 0; t < threads; t++){
+			workers.add(pool.submit(() -> {
+				Random random = ThreadLocalRandom.current();
+				int k;
+				try{
+					while((k = next.getAndIncrement()) < count){
+						if(write(generate(random), k)) written.incrementAndGet();
+					}
+				}catch(RuntimeException e){
+					next.set(count);						//Stop the other workers
+					throw e;
+				}
+				return null;
+			}));
+		}
+		pool.shutdown();
+		for(Future<Void> w : workers){
+			try{
+				w.get();
+			}catch(ExecutionException e){
+				System.err.println("Generating puzzles for map " + name + " failed: " + e.getCause());
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		int n = written.get();
+		System.err.printf("%s: %d puzzles in %.3f s on %d threads: %.2f puzzles/s%n",
+				name, n, seconds, threads, n / seconds);
+	}
+	private boolean write(Board puzzle, int k){
+		/* Write puzzle number k. Returns false if
+		 * it could not be written
+		 * */
+		File file = new File(directory, String.format("%s_%05d.sudoku", name, k));
+		try(Writer out = new BufferedWriter(new FileWriter(file))){
+			out.write(puzzle.toSudokuString());
+		}catch(IOException e){
+			System.err.println("Could not write \'" + file + "\': " + e.getMessage());
+			return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,62 @@
+/*Histogram class
+ *
+ * Records latencies in a fixed number of buckets, so
+ * millions of samples take no more memory than a few.
+ * Values below 32 get their own bucket; above that each
+ * power of two is split into 32 buckets, which keeps
+ * percentiles within about 3% of the real value.
+ * */
+
+class Histogram{
+	private final long[] count = new long[64*32];
+	private long total = 0;
+	private long max = 0;
+
+	private static int bucket(long v){
+		if(v < 32) return (int)v;
+		int e = 63 - Long.numberOfLeadingZeros(v);		//v is in [2^e, 2^(e+1))
+		int sub = (int)(v >>> (e - 5)) & 31;
+		return (e - 4)*32 + sub;
+	}
+	private static long value(int b){
+		/* The lowest value that goes into bucket b */
+		if(b < 32) return b;
+		int e = b/32 + 4;
+		return (32L + b % 32) << (e - 5);
+	}
+	public synchronized void add(long v){
+		/* Record the value v */
+		if(v < 0) v = 0;
+		count[bucket(v)]++;
+		total++;
+		if(v > max) max = v;
+	}
+	public synchronized void add(Histogram other){
+		/* Record all the values in other */
+		for(int b = 0; b < count.length; b++){
+			count[b] += other.count[b];
+		}
+		total += other.total;
+		if(other.max > max) max = other.max;
+	}
+	public synchronized long count(){
+		return total;
+	}
+	public synchronized long max(){
+		return max;
+	}
+	public synchronized long percentile(double p){
+		/* Return the value that p percent of the
+		 * values are at or below
+		 * */
+		if(total == 0) return 0;
+		long rank = (long)Math.ceil(p / 100.0 * total);
+		if(rank < 1) rank = 1;
+		long seen = 0;
+		for(int b = 0; b < count.length; b++){
+			seen += count[b];
+			if(seen >= rank) return Math.min(value(b), max);
+		}
+		return max;
+	}
+}
@@ -1,11 +1,45 @@
 class JavaSudoku{
-	private static enum Action { solve, print }
+	private static enum Action { solve, print, batch, count, generate, serve, dimacs, work, collect }
+	private static String report(Stats stats, String format){
+		return format.equals("json") ? stats.toJSON() : stats.report();
+	}
 	private static void usage(){
-		System.out.println("Usage: java JavaSudoku [-m mapfile.map] [-p] [-v] [-s sudokustring] puzzle.sudoku\n");
+		System.out.println("Usage: java JavaSudoku [-m mapfile.map] [-p] [-v] [-c] [-f] [-e engine] [-b strategy] [-subsets n] [-patterns list] [-t threads] [-count [limit]] [-stats [text|json]] [-timeout ms] [-checkpoint file [seconds]] [-tt [entries]] [-portfolio [list]] [-cache n] [-cachefile file] [-dimacs file] [-split depth directory] [-s sudokustring] puzzle.sudoku");
+		System.out.println("       java JavaSudoku [-v] [-b strategy] [-stats [text|json]] [-timeout ms] [-checkpoint file [seconds]] -resume checkpoint");
+		System.out.println("       java JavaSudoku [-b strategy] [-t threads] [-stats [text|json]] [-timeout ms] [-portfolio [list]] [-cache n] [-cachefile file] -batch puzzles.txt");
+		System.out.println("       java JavaSudoku [-m mapfile.map] [-t threads] [-clues n] [-o directory] -generate count");
+		System.out.println("       java JavaSudoku [-b strategy] [-timeout ms] [-cache n] [-cachefile file] -serve port");
+		System.out.println("       java JavaSudoku [-b strategy] [-timeout ms] -work directory");
+		System.out.println("       java JavaSudoku [-b strategy] [-timeout ms] -collect directory [processes]\n");
 		System.out.println("-m: Use custom map file");
 		System.out.println("-p: Print the sudoku, don't try to solve it");
 		System.out.println("-v: Be verbose");
+		System.out.println("-c: Copy the board for every choice instead of undoing changes");
+		System.out.println("-f: Run full scans on every pass instead of only where something changed");
+		System.out.println("-e: Solving engine: board (default), dlx or sat");
+		System.out.println("-b: Branching strategy: first, mrv (default), degree, lcv or random");
+		System.out.println("-subsets: Look for naked and hidden subsets of up to n fields (default 4, 0 to switch off)");
+		System.out.println("-patterns: Look for these patterns, in this order: a comma separated list of xwing, swordfish and xywing, or none (default none)");
+		System.out.println("-t: Search on this many threads");
+		System.out.println("-count: Count the solutions, stopping at limit (default 2, which checks that the solution is unique)");
+		System.out.println("-stats: Print the solver statistics and timings after solving, as text (default) or JSON");
+		System.out.println("-tt: Remember up to this many board states that have no solution (default 1048576), and skip them when they come up again");
+		System.out.println("-portfolio: Race these configurations on separate threads, first answer wins: a comma separated list of first, mrv, degree, lcv, nosubsets, patterns, restarts, sat and dlx (default " + Portfolio.DEFAULT + ")");
+		System.out.println("-cache: Look up standard 9x9 puzzles in a cache of n solutions, matching relabeled, transposed and shuffled copies");
+		System.out.println("-cachefile: Load the cache from this file, and save it there at the end (implies -cache 100000)");
+		System.out.println("-dimacs: Write the SAT encoding of the sudoku to this file in DIMACS CNF, don't solve it");
 		System.out.println("-s: Load a standard 9x9 sudoku from a string argument");
+		System.out.println("-generate: Make count new puzzles for the map (or for every map in map/ up to 25x25)");
+		System.out.println("-clues: Stop removing clues from generated puzzles at n clues");
+		System.out.println("-o: Write generated puzzles to this directory (default generated)");
+		System.out.println("-batch: Solve a file of 9x9 sudoku strings, one per line, on all cores");
+		System.out.println("-serve: Answer solve requests on this port of localhost, over plain TCP or HTTP");
+		System.out.println("-timeout: Give up on a puzzle after this many milliseconds (default no limit, 10000 when serving)");
+		System.out.println("-checkpoint: Save the search to this file every so many seconds (default 60), and when it is stopped");
+		System.out.println("-resume: Go on with the search saved in this checkpoint file, saving to it as it goes");
+		System.out.println("-split: Expand the search tree to this depth and write each board there to a work unit file in directory, to solve (or -count) with -work");
+		System.out.println("-work: Solve the work units in directory, sharing them with any other workers");
+		System.out.println("-collect: Start this many worker processes on directory (default all cores, 0 to only wait), and print the first solution or the total count");
 		System.exit(-1);
 	}
 	public static void main(String[] args){
@@ -15,6 +49,32 @@ class JavaSudoku{
 		String puzzleString = "";
 		String map = "";
 		boolean verbose = false;
+		boolean copy = false;
+		boolean fullScans = false;
+		int threads = 0;								//0: one for a single sudoku, all cores in batch mode
+		String engine = "board";
+		long limit = 2;
+		int maxSubset = Subsets.MAX;
+		String statsFormat = null;						//null: no statistics
+		Stats.Technique[] patterns = Patterns.NONE;
+		int port = 0;
+		long timeout = 0;								//0: no limit, or the Server's default
+		int cacheSize = 0;								//0: no cache
+		int ttSize = 0;									//0: no transposition table
+		Portfolio portfolio = null;
+		String cacheFile = null;
+		int count = 0;
+		int clues = 0;
+		String directory = "generated";
+		String dimacsFile = null;
+		String checkpointFile = null;
+		long checkpointSeconds = 60;
+		String resumeFile = null;
+		int splitDepth = 0;
+		String workDir = null;
+		int processes = Runtime.getRuntime().availableProcessors();
+		java.util.ArrayList<String> workerArgs = new java.util.ArrayList<String>();	//-b for the workers -collect starts
+		Strategy strategy = new MRVStrategy();
 		/* Process arguments */
 		for(int i = 0; i < args.length; i++){	
 			if(args[i].equals("-m")){           
@@ -29,36 +89,385 @@ class JavaSudoku{
 				}else{                          
 					usage();                    
 				}                               
+			}else if(args[i].equals("-e")){
+				if(i+1 < args.length){
+					engine = args[++i];
+				}else{
+					usage();
+				}
+			}else if(args[i].equals("-b")){
+				if(i+1 < args.length){
+					strategy = Strategy.forName(args[++i]);
+					if(strategy == null) usage();
+					workerArgs.add("-b");
+					workerArgs.add(args[i]);
+				}else{
+					usage();
+				}
+			}else if(args[i].equals("-subsets")){
+				if(i+1 < args.length && args[i+1].matches("[0-9]+")){
+					maxSubset = Integer.parseInt(args[++i]);
+					if(maxSubset > Subsets.MAX) usage();
+				}else{
+					usage();
+				}
+			}else if(args[i].equals("-patterns")){
+				if(i+1 < args.length){
+					patterns = Patterns.forNames(args[++i]);
+					if(patterns == null) usage();
+				}else{
+					usage();
+				}
+			}else if(args[i].equals("-t")){
+				if(i+1 < args.length){
+					try{
+						threads = Integer.parseInt(args[++i]);
+					}catch(NumberFormatException e){
+						usage();
+					}
+					if(threads < 1) usage();
+				}else{
+					usage();
+				}
+			}else if(args[i].equals("-batch")){
+				if(i+1 < args.length){
+					action = Action.batch;
+					puzzle = args[++i];
+				}else{
+					usage();
+				}
+			}else if(args[i].equals("-count")){
+				action = Action.count;
+				if(i+1 < args.length && args[i+1].matches("[0-9]+")){
+					limit = Long.parseLong(args[++i]);
+					if(limit < 1) usage();
+				}
+			}else if(args[i].equals("-stats")){
+				statsFormat = "text";
+				if(i+1 < args.length && args[i+1].matches("text|json")){
+					statsFormat = args[++i];
+				}
+			}else if(args[i].equals("-serve") || args[i].equals("-timeout")){
+				if(i+1 < args.length && args[i+1].matches("[0-9]+")){
+					if(args[i].equals("-serve")){
+						action = Action.serve;
+						port = Integer.parseInt(args[++i]);
+						if(port > 65535) usage();
+					}else{
+						timeout = Long.parseLong(args[++i]);
+						if(timeout < 1) usage();
+					}
+				}else{
+					usage();
+				}
+			}else if(args[i].equals("-cache")){
+				if(i+1 < args.length && args[i+1].matches("[0-9]+")){
+					cacheSize = Integer.parseInt(args[++i]);
+					if(cacheSize < 1) usage();
+				}else{
+					usage();
+				}
+			}else if(args[i].equals("-tt")){
+				ttSize = 1 << 20;
+				if(i+1 < args.length && args[i+1].matches("[0-9]+")){
+					ttSize = Integer.parseInt(args[++i]);
+					if(ttSize < 1) usage();
+				}
+			}else if(args[i].equals("-portfolio")){
+				String list = Portfolio.DEFAULT;
+				if(i+1 < args.length && args[i+1].matches("[a-z]+(,[a-z]+)*")) list = args[++i];
+				portfolio = Portfolio.forNames(list);
+				if(portfolio == null) usage();
+			}else if(args[i].equals("-cachefile")){
+				if(i+1 < args.length){
+					cacheFile = args[++i];
+				}else{
+					usage();
+				}
+			}else if(args[i].equals("-generate") || args[i].equals("-clues")){
+				if(i+1 < args.length && args[i+1].matches("[0-9]+")){
+					if(args[i].equals("-generate")){
+						action = Action.generate;
+						count = Integer.parseInt(args[++i]);
+					}else{
+						clues = Integer.parseInt(args[++i]);
+					}
+				}else{
+					usage();
+				}
+			}else if(args[i].equals("-dimacs")){
+				if(i+1 < args.length){
+					action = Action.dimacs;
+					dimacsFile = args[++i];
+				}else{
+					usage();
+				}
+			}else if(args[i].equals("-checkpoint")){
+				if(i+1 < args.length){
+					checkpointFile = args[++i];
+					if(i+1 < args.length && args[i+1].matches("[0-9]+")){
+						checkpointSeconds = Long.parseLong(args[++i]);
+						if(checkpointSeconds < 1) usage();
+					}
+				}else{
+					usage();
+				}
+			}else if(args[i].equals("-resume")){
+				if(i+1 < args.length){
+					resumeFile = args[++i];
+				}else{
+					usage();
+				}
+			}else if(args[i].equals("-split")){
+				if(i+2 < args.length && args[i+1].matches("[0-9]+")){
+					splitDepth = Integer.parseInt(args[++i]);
+					workDir = args[++i];
+				}else{
+					usage();
+				}
+			}else if(args[i].equals("-work") || args[i].equals("-collect")){
+				if(i+1 < args.length){
+					action = args[i].equals("-work") ? Action.work : Action.collect;
+					workDir = args[++i];
+					if(action == Action.collect && i+1 < args.length && args[i+1].matches("[0-9]+")){
+						processes = Integer.parseInt(args[++i]);
+					}
+				}else{
+					usage();
+				}
+			}else if(args[i].equals("-o")){
+				if(i+1 < args.length){
+					directory = args[++i];
+				}else{
+					usage();
+				}
 			}else if(args[i].equals("-p")){     
 				action = Action.print;          
 			}else if(args[i].equals("-v")){
 				verbose = true;
+			}else if(args[i].equals("-c")){
+				copy = true;
+			}else if(args[i].equals("-f")){
+				fullScans = true;
 			}else{                              
 				puzzle = args[i];               
 			}                                   
 		}                                       
-		if(puzzle.equals("") && puzzleString.equals("")) usage();
-		if(puzzleString.equals("")){
+		if(action == Action.generate){
+			if(threads == 0) threads = Runtime.getRuntime().availableProcessors();
+			String[] maps;
+			if(map.equals("")){								//Every map in map/
+				maps = new java.io.File("map").list((dir, name) -> name.endsWith(".map"));
+				java.util.Arrays.sort(maps);
+				for(int i = 0; i < maps.length; i++) maps[i] = "map/" + maps[i];
+			}else{
+				maps = new String[]{ map };
+			}
+			for(String m : maps){
+				Generator generator = new Generator(m, clues, directory);
+				if(map.equals("") && generator.getSize() > Generator.MAX_DEFAULT_SIZE){
+					System.err.println("Skipping " + m + ", give it with -m to generate " + generator.getSize() + "x" + generator.getSize() + " puzzles");
+					continue;
+				}
+				generator.run(count, threads);
+			}
+			return;
+		}
+		SolutionCache cache = null;
+		if(cacheFile != null && cacheSize == 0) cacheSize = 100000;
+		if(cacheSize > 0){
+			cache = new SolutionCache(cacheSize);
+			if(cacheFile != null) cache.load(cacheFile);
+		}
+		if(action == Action.serve){
+			Server server = new Server(port, strategy);
+			if(timeout > 0) server.setTimeout(timeout);
+			server.setCache(cache);
+			if(cacheFile != null){							//Runs until killed, so save on the way out
+				SolutionCache saved = cache;
+				String file = cacheFile;
+				Runtime.getRuntime().addShutdownHook(new Thread(() -> saved.save(file)));
+			}
+			server.run();
+			return;
+		}
+		if(action == Action.work){
+			WorkUnits.work(workDir, strategy, timeout);
+			return;
+		}
+		if(action == Action.collect){
+			WorkUnits.collect(workDir, processes, workerArgs.toArray(new String[0]), timeout);
+			return;
+		}
+		if(puzzle.equals("") && puzzleString.equals("") && resumeFile == null) usage();
+		if(workDir != null && action != Action.solve && action != Action.count) usage();
+		if((checkpointFile != null || resumeFile != null) && (action != Action.solve || copy || threads > 1 || !engine.equals("board"))) usage();
+		if(portfolio != null && (cache != null || workDir != null || checkpointFile != null || resumeFile != null || copy || threads > 1 && action != Action.batch
+				|| (action != Action.solve && action != Action.batch) || !engine.equals("board"))) usage();
+		if(action == Action.batch){
+			if(threads == 0) threads = Runtime.getRuntime().availableProcessors();
+			if(portfolio != null) threads = Math.max(1, threads / portfolio.size());	//Each puzzle takes a thread per racer
+			Batch batch = new Batch(threads, strategy);
+			Stats total = new Stats();
+			if(statsFormat != null){
+				total.setTimed(true);
+				batch.setStats(total);
+			}
+			batch.setCache(cache);
+			batch.setPortfolio(portfolio);
+			batch.setTimeout(timeout);
+			batch.run(puzzle);
+			if(statsFormat != null) System.err.println(report(total, statsFormat));
+			if(cacheFile != null) cache.save(cacheFile);
+			return;
+		}
+		Checkpoint checkpoint = null;
+		if(resumeFile != null){
+			checkpoint = Checkpoint.load(resumeFile, checkpointSeconds);
+			b = checkpoint.board();
+			puzzle = "checkpoint \"" + resumeFile + "\" at depth " + checkpoint.depth();
+		}else if(puzzleString.equals("")){
 			b = new Board(puzzle, map);
 			puzzle = "\"" + puzzle + "\"";
 		}else{
 			b = new Board(puzzleString);
 			puzzle = "sudoku string \"" + puzzleString + "\"";
 		}
+		if(checkpointFile != null && checkpoint == null){
+			checkpoint = new Checkpoint(checkpointFile, checkpointSeconds, map);
+			b.setCheckpoint(checkpoint);
+		}
+		if(checkpoint != null){							//Save the search if the process is stopped
+			Limits limits = b.getLimits();
+			Thread main = Thread.currentThread();
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				limits.cancel();
+				try{
+					main.join(10000);
+				}catch(InterruptedException e){
+					//Exit without waiting
+				}
+			}));
+		}
+		if(ttSize > 0) b.setTable(new TranspositionTable(ttSize));
+		if(workDir != null){							//-split
+			b.setStrategy(strategy);
+			b.setIncremental(!fullScans);
+			b.setSubsets(maxSubset);
+			b.setPatterns(patterns);
+			int units = WorkUnits.split(b, splitDepth, action == Action.count ? limit : 0, workDir);
+			System.out.println("Wrote " + units + " work units of " + puzzle + " to \"" + workDir + "\", solve them with -collect " + workDir);
+			return;
+		}
 		switch(action){
 			case print:
 				System.out.println(b);
 				break;
+			case dimacs:
+				SAT encoding = new SAT(b);
+				try(java.io.Writer out = new java.io.BufferedWriter(new java.io.FileWriter(dimacsFile))){
+					encoding.writeDimacs(out);
+				}catch(java.io.IOException e){
+					System.err.println("Could not write DIMACS file '" + dimacsFile + "': " + e.getMessage());
+					System.exit(-1);
+				}
+				System.out.println("Wrote " + encoding.getVariables() + " variables and " + encoding.getClauses() + " clauses to '" + dimacsFile + "'");
+				break;
 			case solve:
 				System.out.println("Solving " + puzzle + "\n" + b);
-				Board solved = b.solve(verbose);
+				Board solved = null;
+				String searched = "";
+				Stats stats = null;								//Kept, since b is replaced by the solution
+				String winner = null;
+				if(engine.equals("dlx")){
+					if(timeout > 0) b.getLimits().setTimeout(timeout);
+					DLX dlx = new DLX(b);
+					if(dlx.solve()) solved = b;
+					searched = "Searched " + dlx.getNodes() + " nodes";
+				}else if(engine.equals("sat")){
+					if(timeout > 0) b.getLimits().setTimeout(timeout);
+					SAT sat = new SAT(b);
+					if(sat.solve()) solved = b;
+					searched = sat.toString();
+				}else if(engine.equals("board")){
+					b.setStrategy(strategy);
+					if(resumeFile == null){					//A checkpoint brings its own scans
+						b.setIncremental(!fullScans);
+						b.setSubsets(maxSubset);
+						b.setPatterns(patterns);
+					}
+					b.getStats().setTimed(statsFormat != null);
+					if(timeout > 0) b.getLimits().setTimeout(timeout);
+					if(checkpoint != null && resumeFile != null){
+						solved = b.resume(checkpoint, verbose);
+					}else if(checkpoint != null){
+						solved = b.solveInPlace(verbose);
+					}else if(portfolio != null){
+						String won = portfolio.solve(b);
+						if(b.getOutcome() == Limits.Outcome.SOLVED) solved = b;
+						winner = (won == null) ? "Portfolio: no configuration finished" : "Portfolio: won by " + won;
+					}else if(threads > 1){
+						solved = ParallelSearch.solve(b, threads);
+					}else if(cache != null && !copy && !verbose){
+						solved = cache.solve(b);
+					}else{
+						solved = copy ? b.solve(verbose) : b.solveInPlace(verbose);
+					}
+					stats = b.getStats();
+					searched = stats.toString();
+				}else{
+					usage();
+				}
 				if(solved != null){
 					b = solved;
 					System.out.println("Success!");
+				}else if(b.getLimits().stopped() == Limits.Outcome.TIMED_OUT){
+					System.out.println("TIMED OUT!");
+				}else if(b.getLimits().stopped() == Limits.Outcome.CANCELLED){
+					System.out.println("CANCELLED!");
 				}else{
 					System.out.println("FAILED!");
 				}
 				System.out.println(b);
+				System.out.println(searched);
+				if(winner != null) System.out.println(winner);
+				if(statsFormat != null && stats != null) System.out.println(report(stats, statsFormat));
+				if(cache != null) System.out.println(cache);
+				if(b.getTable() != null) System.out.println(b.getTable());
+				if(cacheFile != null) cache.save(cacheFile);
+				if(checkpoint != null){
+					if(b.getLimits().stopped() == null){		//Done, nothing left to resume
+						checkpoint.delete();
+					}else{
+						System.out.println("Saved the search to \"" + (resumeFile != null ? resumeFile : checkpointFile) + "\", go on with -resume");
+					}
+				}
+				break;
+			case count:
+				System.out.println("Counting solutions of " + puzzle + "\n" + b);
+				b.setStrategy(strategy);
+				b.setIncremental(!fullScans);
+				b.setSubsets(maxSubset);
+				b.setPatterns(patterns);
+				b.getStats().setTimed(statsFormat != null);
+				if(timeout > 0) b.getLimits().setTimeout(timeout);
+				long solutions = b.countSolutions(limit);
+				if(b.getOutcome() == Limits.Outcome.TIMED_OUT){
+					System.out.println("At least " + solutions + ((solutions == 1) ? " solution" : " solutions") + " (stopped at the timeout)");
+				}else if(solutions == 0){
+					System.out.println("No solutions");
+				}else if(solutions >= limit){
+					System.out.println("At least " + solutions + ((solutions == 1) ? " solution" : " solutions") + " (stopped at the limit)");
+				}else{
+					System.out.println(solutions + ((solutions == 1) ? " solution" : " solutions"));
+				}
+				if(limit >= 2 && solutions == 1 && b.getOutcome() == Limits.Outcome.SOLVED) System.out.println("The solution is unique");
+				if(solutions > 0){
+					System.out.println((limit == 1) ? b : b.getFirstSolution());
+				}
+				System.out.println(b.getStats());
+				if(statsFormat != null) System.out.println(report(b.getStats(), statsFormat));
+				if(b.getTable() != null) System.out.println(b.getTable());
 				break;
 		}
 	}
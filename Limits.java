@@ -0,0 +1,81 @@
+/*Limits class
+ *
+ * The limits of a solve: a deadline, a node budget and a
+ * cancellation token. A Board shares its Limits with all
+ * the copies made while solving it, and checks them at
+ * every search node and between the propagation steps, so
+ * a solve stops soon after a limit is passed:
+ *
+ *   deadline   a System.nanoTime() value, set directly or
+ *              with setTimeout()
+ *   node limit the most search nodes to visit, counted in
+ *              the board's Stats
+ *   cancel     a flag that anyone may set, from any thread,
+ *              to stop the solve
+ *
+ * The first limit that is passed is remembered, and gives
+ * the Outcome of the solve: TIMED_OUT for the deadline and
+ * the node limit, CANCELLED for the flag. A solve that ends
+ * on its own is SOLVED or FAILED (no solution).
+ * */
+
+import java.util.concurrent.atomic.AtomicBoolean ;
+
+class Limits{
+	public static enum Outcome { SOLVED, FAILED, TIMED_OUT, CANCELLED }
+	private volatile long deadline = Long.MAX_VALUE;	//Volatile, as the threads of a
+	private volatile long nodeLimit = Long.MAX_VALUE;	//solve read them all
+	private volatile AtomicBoolean cancel = null;
+	private volatile Outcome stopped = null;		//Why the solve stopped, or null
+
+	public void setDeadline(long deadline){
+		/* Stop when System.nanoTime() reaches deadline */
+		this.deadline = deadline;
+	}
+	public long getDeadline(){
+		return deadline;
+	}
+	public void setTimeout(long millis){
+		/* Stop millis milliseconds from now */
+		deadline = System.nanoTime() + millis*1000000;
+	}
+	public void setNodeLimit(long nodeLimit){
+		/* Stop after visiting nodeLimit nodes */
+		this.nodeLimit = nodeLimit;
+	}
+	public void setCancel(AtomicBoolean cancel){
+		/* Stop as soon as cancel is set */
+		this.cancel = cancel;
+	}
+	public void cancel(){
+		/* Stop the solve. Safe to call from any thread */
+		AtomicBoolean c = cancel;
+		if(c == null){
+			c = new AtomicBoolean();
+			cancel = c;
+		}
+		c.set(true);
+	}
+	public void reset(){
+		/* Forget why the last solve stopped */
+		stopped = null;
+	}
+	public boolean exceeded(long nodes){
+		/* Check the limits, with nodes visited so far.
+		 * Returns true if the solve should stop
+		 * */
+		if(stopped != null) return true;
+		if(cancel != null && cancel.get()){
+			stopped = Outcome.CANCELLED;
+		}else if(nodes >= nodeLimit || (deadline != Long.MAX_VALUE && System.nanoTime() - deadline >= 0)){
+			stopped = Outcome.TIMED_OUT;
+		}
+		return stopped != null;
+	}
+	public Outcome stopped(){
+		/* Why the solve stopped, or null if it
+		 * hasn't been stopped by a limit
+		 * */
+		return stopped;
+	}
+}
@@ -0,0 +1,91 @@
+/*ParallelSearch class
+ *
+ * Solves a Board on several threads with a ForkJoinPool.
+ *
+ * The top levels of the search tree are split into tasks:
+ * each task propagates its board and forks one task for
+ * every option of the field the Strategy picks. Below
+ * splitDepth a task runs the normal in-place search on
+ * its own copy. Idle threads steal the tasks that are
+ * still waiting.
+ *
+ * All tasks share one stop flag. The first task to find
+ * a solution sets it, and every other task gives up. They
+ * share the board's Limits too, so a deadline or cancel
+ * flag stops them all (a node limit counts the nodes of
+ * each task on its own).
+ * */
+
+import java.util.concurrent.ForkJoinPool ;
+import java.util.concurrent.RecursiveTask ;
+import java.util.concurrent.atomic.AtomicBoolean ;
+
+class ParallelSearch extends RecursiveTask<Board>{
+	private final Board board;
+	private final int depth;
+	private final int splitDepth;
+	private final AtomicBoolean stop;
+	private final Stats total;
+
+	private ParallelSearch(Board board, int depth, int splitDepth, AtomicBoolean stop, Stats total){
+		this.board = board;
+		this.depth = depth;
+		this.splitDepth = splitDepth;
+		this.stop = stop;
+		this.total = total;
+	}
+	public static Board solve(Board board, int threads){
+		/* Solve board using "threads" threads. Returns
+		 * a solved Board, or null if there is no solution
+		 * or a limit was passed (board.getLimits().stopped()
+		 * tells which). The search statistics are added to
+		 * board's Stats
+		 * */
+		int splitDepth = 2;						//Deep enough for a few tasks per thread
+		while((1 << splitDepth) < 4*threads) splitDepth++;
+		Stats total = board.getStats();
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		board.getLimits().reset();
+		try{
+			return pool.invoke(new ParallelSearch(board, 0, splitDepth, new AtomicBoolean(false), total));
+		}finally{
+			pool.shutdown();
+			board.setStats(total);
+		}
+	}
+	protected Board compute(){
+		if(stop.get() || board.getLimits().exceeded(0)) return null;
+		Stats stats = new Stats();				//Stats aren't thread safe, so keep our own
+		stats.setTimed(total.isTimed());
+		board.setStats(stats);
+		try{
+			if(depth >= splitDepth){				//Search the rest on this thread
+				board.setStop(stop);
+				Board solved = board.solveInPlace(false);
+				if(solved != null) stop.set(true);
+				return solved;
+			}
+			Board[] children = board.branches();
+			if(children == null) return null;		//Impossible
+			if(children.length == 0){				//Solved
+				stop.set(true);
+				return board;
+			}
+			ParallelSearch[] tasks = new ParallelSearch[children.length];
+			for(int k = 0; k < children.length; k++){
+				tasks[k] = new ParallelSearch(children[k], depth + 1, splitDepth, stop, total);
+			}
+			for(int k = tasks.length - 1; k > 0; k--){
+				tasks[k].fork();
+			}
+			Board solved = tasks[0].compute();
+			for(int k = 1; k < tasks.length; k++){
+				Board b = tasks[k].join();
+				if(solved == null) solved = b;
+			}
+			return solved;
+		}finally{
+			total.add(stats);
+		}
+	}
+}
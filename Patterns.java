@@ -0,0 +1,239 @@
+/*Patterns class
+ *
+ * The techniques that look at more than one unit at a time,
+ * run when the scans and subsets have nothing left:
+ *
+ *   xWing      a character that fits in exactly the same 2
+ *              columns of 2 rows must be in those rows, so
+ *              it is removed from the rest of the 2 columns.
+ *              The same goes with rows and columns swapped
+ *   swordfish  the same with 3 rows and 3 columns
+ *   xyWing     a field with candidates xy, and two of its
+ *              peers with xz and yz. Whichever the first one
+ *              is, one of the peers is z, so z is removed
+ *              from every field that sees both peers
+ *
+ * The fish work on bitmaps of the columns (rows) a
+ * character fits in, for each row (column), which are built
+ * in one pass over the board before looking. The techniques
+ * are tried in the order they are given, and run() stops at
+ * the first one that removes anything, so the cheap scans
+ * get to go first again. Each hit is counted in the Stats.
+ *
+ * They are off by default: on the 9x9 puzzles they cost
+ * more time than the branches they save. Use them to find
+ * out where inference is cheaper than search.
+ * */
+
+class Patterns{
+	public static final Stats.Technique[] ALL = {
+		Stats.Technique.xWing, Stats.Technique.swordfish, Stats.Technique.xyWing };
+	public static final Stats.Technique[] NONE = {};
+	private final Field[] field;
+	private final AreaMap area;
+	private final int size;
+	private final Stats.Technique[] order;
+	private Stats stats;
+	/* Scratch space, so run() never allocates */
+	private final CSet[][] inRow, inCol;		//inRow[c][r]: the columns of row r that c fits in
+	private boolean built;						//inRow and inCol are up to date
+	private final int[] base;					//The base lines that could be part of a fish
+	private int bases;
+	private final int[] pair;					//The peers of the pivot with two candidates
+	private final CSet[] union;				//union[d]: the union of the first d picks
+	private final int[] pick;
+	private final int[] seen;					//seen[f] == mark: f is a peer of the second pincer
+	private int mark = 0;
+
+	public Patterns(Field[] field, AreaMap area, Stats.Technique[] order, Stats stats){
+		/* Creates a pattern finder for the fields of a board.
+		 * The techniques in order are tried, in that order
+		 * */
+		this.field = field;
+		this.area = area;
+		this.order = order;
+		this.stats = stats;
+		size = area.getSize();
+		inRow = new CSet[size][size];
+		inCol = new CSet[size][size];
+		for(int c = 0; c < size; c++){
+			for(int b = 0; b < size; b++){
+				inRow[c][b] = new CSet(size);
+				inCol[c][b] = new CSet(size);
+			}
+		}
+		base = new int[size];
+		pair = new int[field.length];
+		union = new CSet[4];
+		for(int d = 0; d < 4; d++){
+			union[d] = new CSet(size);
+		}
+		pick = new int[3];
+		seen = new int[field.length];
+	}
+	public static Stats.Technique[] forNames(String names){
+		/* Return the techniques in a comma separated
+		 * list like "xwing,xywing", or null if one of
+		 * them is unknown. "none" is the empty list
+		 * */
+		if(names.equals("none")) return NONE;
+		String[] list = names.split(",");
+		Stats.Technique[] order = new Stats.Technique[list.length];
+		for(int i = 0; i < list.length; i++){
+			for(Stats.Technique t : ALL){
+				if(t.name().equalsIgnoreCase(list[i])) order[i] = t;
+			}
+			if(order[i] == null) return null;
+		}
+		return order;
+	}
+	public void setStats(Stats stats){
+		this.stats = stats;
+	}
+	public boolean run() throws NoLegalCharactersException{
+		/* Try the techniques in order. Returns true as
+		 * soon as one of them has removed something
+		 * */
+		built = false;
+		for(Stats.Technique t : order){
+			boolean hit = false;
+			switch(t){
+				case xWing:
+					hit = fish(2);
+					break;
+				case swordfish:
+					hit = fish(3);
+					break;
+				case xyWing:
+					hit = xyWing();
+					break;
+				default:
+					break;
+			}
+			if(hit){
+				stats.hit(t);
+				return true;
+			}
+		}
+		return false;
+	}
+	private int cell(boolean rows, int b, int j){
+		/* Field j of row b, or of column b */
+		return rows ? b*size + j : j*size + b;
+	}
+	private void build(){
+		/* Fill in inRow and inCol. Defined fields are
+		 * included, so a fish is sound even if the scans
+		 * haven't removed a defined character from the
+		 * rest of its row yet
+		 * */
+		if(built) return;
+		built = true;
+		for(int c = 0; c < size; c++){
+			for(int b = 0; b < size; b++){
+				inRow[c][b].empty();
+				inCol[c][b].empty();
+			}
+		}
+		for(int r = 0; r < size; r++){
+			for(int j = 0; j < size; j++){
+				CSet legal = field[r*size + j].canBe();
+				for(int c = legal.first(); c >= 0; c = legal.next(c+1)){
+					inRow[c][r].add(j);
+					inCol[c][j].add(r);
+				}
+			}
+		}
+	}
+	private boolean fish(int k) throws NoLegalCharactersException{
+		/* Look for fish of k rows or k columns */
+		build();
+		for(int c = 0; c < size; c++){
+			if(fish(c, k, true) || fish(c, k, false)) return true;
+		}
+		return false;
+	}
+	private boolean fish(int c, int k, boolean rows) throws NoLegalCharactersException{
+		/* Look for a fish of k lines for character c,
+		 * with rows (or columns) as the base lines
+		 * */
+		CSet[] line = rows ? inRow[c] : inCol[c];
+		bases = 0;
+		for(int b = 0; b < size; b++){
+			int count = line[b].count();
+			if(count >= 2 && count <= k) base[bases++] = b;	//Fewer is a single, left to the scans
+		}
+		if(bases < k) return false;
+		union[0].empty();
+		return cover(line, c, k, rows, 0, 0);
+	}
+	private boolean cover(CSet[] line, int c, int k, boolean rows, int from, int depth) throws NoLegalCharactersException{
+		/* Add base lines from base[from..] to the first
+		 * depth picks, until there are k of them
+		 * */
+		if(depth == k){
+			if(union[k].count() < k) throw new NoLegalCharactersException("Too few places for a fish");
+			boolean changed = false;
+			for(int j = union[k].first(); j >= 0; j = union[k].next(j+1)){
+				for(int b = 0, p = 0; b < size; b++){
+					if(p < k && pick[p] == b){
+						p++;
+						continue;
+					}
+					if(field[cell(rows, b, j)].canNotBe(c)) changed = true;
+				}
+			}
+			return changed;
+		}
+		for(int i = from; i <= bases - (k - depth); i++){
+			if(union[depth+1].union(union[depth], line[base[i]]) > k) continue;
+			pick[depth] = base[i];
+			if(cover(line, c, k, rows, i + 1, depth + 1)) return true;
+		}
+		return false;
+	}
+	private boolean xyWing() throws NoLegalCharactersException{
+		/* Look for a pivot with candidates xy, and
+		 * pincers xz and yz among its peers
+		 * */
+		for(int p = 0; p < field.length; p++){
+			if(field[p].count() != 2) continue;
+			CSet xy = field[p].canBe();
+			int pairs = 0;
+			for(int f : area.peers(p)){
+				if(field[f].count() == 2 && xy.intersects(field[f].canBe()) && !xy.equals(field[f].canBe())){
+					pair[pairs++] = f;
+				}
+			}
+			for(int i = 0; i < pairs; i++){
+				CSet xz = field[pair[i]].canBe();
+				for(int j = i + 1; j < pairs; j++){
+					CSet yz = field[pair[j]].canBe();
+					if(xz.equals(yz)) continue;
+					/* Each shares a different character with the
+					 * pivot, and they must share the other one, z
+					 * */
+					int z = xz.first();
+					if(xy.has(z)) z = xz.next(z+1);
+					if(!yz.has(z)) continue;
+					if(pincers(pair[i], pair[j], z)) return true;
+				}
+			}
+		}
+		return false;
+	}
+	private boolean pincers(int a, int b, int z) throws NoLegalCharactersException{
+		/* Remove z from every field that is a peer
+		 * of both a and b
+		 * */
+		mark++;
+		for(int f : area.peers(b)){
+			seen[f] = mark;
+		}
+		boolean changed = false;
+		for(int f : area.peers(a)){
+			if(seen[f] == mark && f != b && field[f].canNotBe(z)) changed = true;
+		}
+		return changed;
+	}
+}
@@ -0,0 +1,215 @@
+/*Portfolio class
+ *
+ * Races several solver configurations on one puzzle, each
+ * on its own thread and its own copy of the board. The
+ * first to finish, with a solution or a proof that there
+ * is none, wins: it sets the cancel flag all the racers
+ * share, and the others give up at their next node. The
+ * configurations are:
+ *
+ *   first, mrv, degree, lcv
+ *              the board engine with that Strategy
+ *   nosubsets  mrv without naked and hidden subsets, which
+ *              is fastest on easy puzzles
+ *   patterns   mrv that also looks for X-Wings, Swordfish
+ *              and XY-Wings
+ *   restarts   mrv trying the characters in random order,
+ *              starting over with a new seed, and twice the
+ *              node budget, whenever the budget runs out.
+ *              Each restarts in a list gets its own seeds
+ *   sat        the SAT engine
+ *   dlx        the Dancing Links engine
+ *
+ * The racers share the board's deadline, and its
+ * TranspositionTable if it has one, so states one of them
+ * has searched in vain are skipped by the others (and by
+ * later restarts).
+ *
+ * Every win is counted by configuration, and toString()
+ * gives the tally, so the default can be tuned on a
+ * corpus of puzzles. One Portfolio can be used by several
+ * threads at once.
+ * */
+
+import java.util.LinkedHashMap ;
+import java.util.Map ;
+import java.util.concurrent.* ;
+import java.util.concurrent.atomic.AtomicBoolean ;
+import java.util.concurrent.atomic.AtomicInteger ;
+import java.util.concurrent.atomic.LongAdder ;
+
+class Portfolio{
+	public static final String DEFAULT = "mrv,nosubsets,sat,degree,restarts,lcv,patterns,restarts";
+	private static final String[] NAMES = { "first", "mrv", "degree", "lcv", "nosubsets", "patterns", "restarts", "sat", "dlx" };
+	private final String[] configs;				//Names, numbered if they appear more than once
+	private final String[] kinds;				//Names as in NAMES
+	private final long[] seeds;					//For restarts
+	private final ExecutorService pool;
+	private final LinkedHashMap<String, LongAdder> wins = new LinkedHashMap<String, LongAdder>();
+	private final LongAdder unsolved = new LongAdder();
+
+	private Portfolio(String[] kinds){
+		this.kinds = kinds;
+		configs = new String[kinds.length];
+		seeds = new long[kinds.length];
+		for(int k = 0; k < kinds.length; k++){
+			int n = 0, of = 0;						//This is the nth of "of" with its name
+			for(int j = 0; j < kinds.length; j++){
+				if(!kinds[j].equals(kinds[k])) continue;
+				of++;
+				if(j <= k) n++;
+			}
+			configs[k] = (of > 1) ? kinds[k] + "#" + n : kinds[k];
+			seeds[k] = 1000L*n;
+			wins.put(configs[k], new LongAdder());
+		}
+		pool = Executors.newCachedThreadPool(r -> {
+			Thread t = new Thread(r);
+			t.setDaemon(true);							//Losers still stopping don't hold up exit
+			return t;
+		});
+	}
+	public static Portfolio forNames(String names){
+		/* Return a Portfolio of the configurations in a
+		 * comma separated list, or null if one is unknown
+		 * */
+		String[] kinds = names.split(",");
+		for(String k : kinds){
+			if(!java.util.Arrays.asList(NAMES).contains(k)) return null;
+		}
+		return new Portfolio(kinds);
+	}
+	public int size(){
+		return configs.length;
+	}
+	public String solve(Board b){
+		/* Race the configurations on b, until one of them
+		 * solves it or finds it has no solution, or b's
+		 * deadline passes. b is left solved if a solution
+		 * was found, and b.getOutcome() tells how the race
+		 * ended. The winner's statistics are added to b's.
+		 * Returns the name of the winning configuration,
+		 * or null
+		 * */
+		int n = configs.length;
+		AtomicBoolean cancel = new AtomicBoolean(false);
+		AtomicInteger winner = new AtomicInteger(-1);
+		Board[] done = new Board[n];
+		CompletionService<Board> race = new ExecutorCompletionService<Board>(pool);
+		for(int k = 0; k < n; k++){
+			Board copy = new Board(b);					//Copied here, as b's Stats aren't thread safe
+			copy.setStats(new Stats());
+			copy.setLimits(limits(b.getLimits().getDeadline(), cancel));
+			int config = k;
+			race.submit(() -> {
+				done[config] = run(config, copy, cancel);
+				if(done[config] != null && winner.compareAndSet(-1, config)) cancel.set(true);
+				return done[config];
+			});
+		}
+		try{
+			for(int k = 0; k < n && winner.get() < 0; k++){
+				race.take();							//Until the first one finishes
+			}
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+		cancel.set(true);								//Stop the rest
+		int w = winner.get();
+		if(w < 0){										//Out of time
+			unsolved.increment();
+			b.getLimits().exceeded(0);
+			b.setOutcome(Limits.Outcome.TIMED_OUT);
+			return null;
+		}
+		Board first = done[w];
+		b.getStats().add(first.getStats());
+		if(first.getOutcome() == Limits.Outcome.SOLVED){
+			for(int i = 0; i < b.getSize()*b.getSize(); i++){
+				Field f = b.getField(i);
+				if(!f.isDefined()) f.define(first.getField(i).definedIndex());
+			}
+		}
+		b.setOutcome(first.getOutcome());
+		wins.get(configs[w]).increment();
+		return configs[w];
+	}
+	private static Limits limits(long deadline, AtomicBoolean cancel){
+		Limits limits = new Limits();
+		limits.setDeadline(deadline);
+		limits.setCancel(cancel);
+		return limits;
+	}
+	private Board run(int config, Board b, AtomicBoolean cancel){
+		/* Run one configuration on its copy b. Returns
+		 * b if it finished (getOutcome() SOLVED or
+		 * FAILED), or null if it was stopped
+		 * */
+		String kind = kinds[config];
+		if(kind.equals("sat")){
+			SAT sat = new SAT(b);
+			boolean solved = sat.solve();
+			b.getStats().nodes(sat.getNodes());
+			if(b.getLimits().stopped() != null) return null;
+			b.setOutcome(solved ? Limits.Outcome.SOLVED : Limits.Outcome.FAILED);
+			return b;
+		}
+		if(kind.equals("dlx")){
+			DLX dlx = new DLX(b);
+			boolean solved = dlx.solve();
+			b.getStats().nodes(dlx.getNodes());
+			if(b.getLimits().stopped() != null) return null;
+			b.setOutcome(solved ? Limits.Outcome.SOLVED : Limits.Outcome.FAILED);
+			return b;
+		}
+		if(kind.equals("restarts")) return restarts(config, b, cancel);
+		if(kind.equals("nosubsets")){
+			b.setStrategy(new MRVStrategy());
+			b.setSubsets(0);
+		}else if(kind.equals("patterns")){
+			b.setStrategy(new MRVStrategy());
+			b.setPatterns(Patterns.forNames("xwing,swordfish,xywing"));
+		}else{
+			b.setStrategy(Strategy.forName(kind));
+		}
+		b.solveInPlace(false);
+		Limits.Outcome o = b.getOutcome();
+		return (o == Limits.Outcome.SOLVED || o == Limits.Outcome.FAILED) ? b : null;
+	}
+	private Board restarts(int config, Board b, AtomicBoolean cancel){
+		/* Search b from the top with a new random order
+		 * each time the node budget runs out, doubling
+		 * the budget every time
+		 * */
+		Stats total = b.getStats();
+		long budget = 8L*b.getSize();
+		for(int k = 0; ; k++){
+			Board copy = new Board(b);
+			copy.setStats(new Stats());
+			Limits limits = limits(b.getLimits().getDeadline(), cancel);
+			limits.setNodeLimit(budget << Math.min(k, 40));
+			copy.setLimits(limits);
+			copy.setStrategy(new RandomStrategy(seeds[config] + k));
+			copy.solveInPlace(false);
+			total.add(copy.getStats());
+			Limits.Outcome o = copy.getOutcome();
+			if(o == Limits.Outcome.SOLVED || o == Limits.Outcome.FAILED){
+				copy.setStats(total);
+				return copy;
+			}
+			if(b.getLimits().exceeded(0)) return null;	//Cancelled or out of time, not out of budget
+		}
+	}
+	public String toString(){
+		/* The number of wins of each configuration */
+		long total = unsolved.sum();
+		for(LongAdder w : wins.values()) total += w.sum();
+		StringBuilder s = new StringBuilder("Portfolio wins:");
+		for(Map.Entry<String, LongAdder> e : wins.entrySet()){
+			long w = e.getValue().sum();
+			s.append(String.format(" %s %d (%.1f%%),", e.getKey(), w, total == 0 ? 0.0 : 100.0*w/total));
+		}
+		s.append(" none ").append(unsolved.sum());
+		return s.toString();
+	}
+}
@@ -0,0 +1,253 @@
+/*Propagator class
+ *
+ * A Propagator does the same work as Board's scan methods,
+ * but only where something has changed. Every Field on
+ * the board tells it when it loses a character. Fields that
+ * become defined go on a queue, and so do the rows, columns
+ * and areas they are in. Then run() works through the queues:
+ *
+ *   - a defined field is removed from all its peers
+ *     (naked singles, like scanOne)
+ *   - a changed unit is checked for characters that fit
+ *     in only one of its fields (hidden singles, like scanTwo)
+ *   - a changed area is checked for characters that are
+ *     confined to one row or column of it (pointing,
+ *     like scanThree)
+ *   - when all of that is done, a changed unit is checked
+ *     for naked and hidden subsets (see Subsets)
+ *   - and when that is done too, the whole board is checked
+ *     for fish and wings (see Patterns), if anything has
+ *     changed since the last time
+ *
+ * until nothing more changes. Each step costs more than the
+ * one before, so it waits until the cheaper ones have
+ * nothing left. The Limits of the solve are checked before
+ * each of the costly steps.
+ * */
+
+class Propagator{
+	private final Field[] field;
+	private final AreaMap area;
+	private final int size;
+	private final int[] singles;			//Defined fields to remove from their peers
+	private int singlesHead = 0, singlesTail = 0;
+	private final boolean[] singleQueued;
+	private final int[] units;				//Units to check for hidden singles and pointing
+	private int unitsHead = 0, unitsTail = 0;
+	private final boolean[] unitQueued;
+	private final int[] subsetUnits;		//Units to check for subsets
+	private int subsetsHead = 0, subsetsTail = 0;
+	private final boolean[] subsetQueued;
+	private final Subsets subsets;			//null if subsets are switched off
+	private final Patterns patterns;		//null if there are no patterns to look for
+	private boolean stale = false;			//Something changed since patterns last ran
+	private Stats stats;
+	/* Scratch sets, so run() never allocates */
+	private final CSet once, twice, placed;
+	private final CSet[] line;
+
+	public Propagator(Field[] field, AreaMap area, int maxSubset, Stats.Technique[] patterns, Stats stats){
+		/* Creates a Propagator for the fields of a board.
+		 * Subsets of up to maxSubset fields are looked for,
+		 * none if it is less than 2, and then the patterns,
+		 * in that order. Nothing is queued
+		 * */
+		this.field = field;
+		this.area = area;
+		size = area.getSize();
+		singles = new int[field.length + 1];		//One spare slot, so a full queue isn't empty
+		singleQueued = new boolean[field.length];
+		units = new int[area.units() + 1];
+		unitQueued = new boolean[area.units()];
+		subsetUnits = new int[area.units() + 1];
+		subsetQueued = new boolean[area.units()];
+		subsets = (maxSubset >= 2) ? new Subsets(field, size, maxSubset, stats) : null;
+		this.patterns = (patterns.length > 0) ? new Patterns(field, area, patterns, stats) : null;
+		this.stats = stats;
+		once = new CSet(size);
+		twice = new CSet(size);
+		placed = new CSet(size);
+		line = new CSet[size];
+		for(int i = 0; i < size; i++){
+			line[i] = new CSet(size);
+		}
+	}
+	public void queueAll(){
+		/* Queue every defined field and every unit */
+		for(int i = 0; i < field.length; i++){
+			if(field[i].isDefined()) queueSingle(i);
+		}
+		for(int u = 0; u < area.units(); u++){
+			queueUnit(u);
+		}
+		stale = true;
+	}
+	public void clear(){
+		/* Empty the queues */
+		while(singlesHead != singlesTail){
+			singleQueued[singles[singlesHead]] = false;
+			singlesHead = (singlesHead + 1) % singles.length;
+		}
+		while(unitsHead != unitsTail){
+			unitQueued[units[unitsHead]] = false;
+			unitsHead = (unitsHead + 1) % units.length;
+		}
+		while(subsetsHead != subsetsTail){
+			subsetQueued[subsetUnits[subsetsHead]] = false;
+			subsetsHead = (subsetsHead + 1) % subsetUnits.length;
+		}
+		stale = false;
+	}
+	public void setStats(Stats stats){
+		this.stats = stats;
+		if(subsets != null) subsets.setStats(stats);
+		if(patterns != null) patterns.setStats(stats);
+	}
+	public void changed(int i){
+		/* Field i has lost one or more characters */
+		if(field[i].isDefined()) queueSingle(i);
+		for(int u : area.unitsOf(i)){
+			queueUnit(u);
+		}
+		stale = true;
+	}
+	private void queueSingle(int i){
+		if(singleQueued[i]) return;
+		singleQueued[i] = true;
+		singles[singlesTail] = i;
+		singlesTail = (singlesTail + 1) % singles.length;
+	}
+	private void queueUnit(int u){
+		if(unitQueued[u]) return;
+		unitQueued[u] = true;
+		units[unitsTail] = u;
+		unitsTail = (unitsTail + 1) % units.length;
+		if(subsets == null || subsetQueued[u]) return;
+		subsetQueued[u] = true;
+		subsetUnits[subsetsTail] = u;
+		subsetsTail = (subsetsTail + 1) % subsetUnits.length;
+	}
+	public boolean run(Limits limits) throws NoLegalCharactersException{
+		/* Work through the queues until they are empty.
+		 * Throws NoLegalCharactersException if the board
+		 * turns out to be impossible, and returns false if
+		 * a limit is passed first. The queues are cleared
+		 * in both cases. Each step is counted in the Stats
+		 * as a call of its scan
+		 * */
+		Stats.Scan scan = null;						//The scan that is running,
+		long before = 0, start = 0;					//and where it started
+		try{
+			while(true){
+				before = stats.getEliminations();
+				start = stats.start();
+				if(singlesHead != singlesTail){
+					scan = Stats.Scan.singles;
+					int i = singles[singlesHead];
+					singlesHead = (singlesHead + 1) % singles.length;
+					singleQueued[i] = false;
+					int d = field[i].definedIndex();
+					for(int f : area.peers(i)){
+						field[f].canNotBe(d);
+					}
+				}else if(unitsHead != unitsTail){
+					int u = units[unitsHead];
+					unitsHead = (unitsHead + 1) % units.length;
+					unitQueued[u] = false;
+					scan = Stats.Scan.hiddenSingles;
+					hiddenSingles(area.unit(u));
+					if(u >= 2*size){
+						stats.scan(scan, before, start);
+						before = stats.getEliminations();
+						start = stats.start();
+						scan = Stats.Scan.pointing;
+						pointing(u - 2*size);
+					}
+				}else if(limits.exceeded(stats.getNodes())){
+					clear();
+					return false;
+				}else if(subsetsHead != subsetsTail){
+					int u = subsetUnits[subsetsHead];
+					subsetsHead = (subsetsHead + 1) % subsetUnits.length;
+					subsetQueued[u] = false;
+					scan = Stats.Scan.subsets;
+					subsets.run(area.unit(u));
+				}else if(patterns != null && stale){
+					stale = false;
+					scan = Stats.Scan.patterns;
+					patterns.run();
+				}else{
+					return true;
+				}
+				stats.scan(scan, before, start);
+			}
+		}catch(NoLegalCharactersException e){
+			stats.scan(scan, before, start);
+			clear();
+			throw e;
+		}
+	}
+	private void hiddenSingles(int[] cells) throws NoLegalCharactersException{
+		/* Define every field that is the only place
+		 * in its unit for some character
+		 * */
+		once.empty();
+		twice.empty();
+		placed.empty();
+		for(int f : cells){
+			CSet legal = field[f].canBe();
+			twice.orAnd(once, legal);
+			once.or(legal);
+			int d = field[f].definedIndex();
+			if(d >= 0 && !placed.add(d)) throw new NoLegalCharactersException("Character defined twice in a unit");
+		}
+		if(once.count() < size) throw new NoLegalCharactersException("Character has no legal field in a unit");
+		once.andNot(twice);
+		once.andNot(placed);
+		for(int c = once.first(); c >= 0; c = once.next(c+1)){
+			for(int f : cells){
+				if(field[f].canBe(c)){
+					field[f].define(c);
+					break;
+				}
+			}
+		}
+	}
+	private void pointing(int a) throws NoLegalCharactersException{
+		/* Remove characters that are confined to one
+		 * row (or column) of area a from the rest of
+		 * that row (or column)
+		 * */
+		placed.empty();
+		for(int f : area.getAll(a)){
+			int d = field[f].definedIndex();
+			if(d >= 0) placed.add(d);
+		}
+		for(int pass = 0; pass < 2; pass++){		//Rows, then columns
+			once.empty();
+			twice.empty();
+			for(int r = 0; r < size; r++){
+				int[] inside = (pass == 0) ? area.insidersRow(r, a) : area.insidersCol(r, a);
+				CSet mask = line[r];
+				mask.empty();
+				for(int f : inside){
+					mask.or(field[f].canBe());
+				}
+				twice.orAnd(once, mask);
+				once.or(mask);
+			}
+			once.andNot(twice);
+			once.andNot(placed);
+			for(int c = once.first(); c >= 0; c = once.next(c+1)){
+				for(int r = 0; r < size; r++){
+					if(!line[r].has(c)) continue;
+					int[] outside = (pass == 0) ? area.outsidersRow(r, a) : area.outsidersCol(r, a);
+					for(int f : outside){
+						field[f].canNotBe(c);
+					}
+					break;
+				}
+			}
+		}
+	}
+}
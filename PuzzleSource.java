@@ -0,0 +1,155 @@
+/*PuzzleSource class
+ *
+ * Reads puzzles from a file that is memory mapped with
+ * FileChannel.map, without going through a Scanner. Two
+ * formats are read:
+ *
+ *   lines    one standard 9x9 sudoku per line, as 81
+ *            characters (the -s format). No String is made
+ *            for a puzzle, as a corpus has millions
+ *   sudoku   one or more puzzles in the .sudoku format,
+ *            one after the other: a comma separated
+ *            character set followed by size*size tokens.
+ *            Each puzzle is cut out of the file and read by
+ *            Board.parse(), like everywhere else
+ *
+ * The file is mapped in windows of up to WINDOW bytes, so
+ * files larger than 2GB work too.
+ * */
+
+import java.io.* ;
+import java.nio.MappedByteBuffer ;
+import java.nio.channels.FileChannel ;
+import java.util.HashMap ;
+
+class PuzzleSource implements Closeable{
+	public static enum Format { lines, sudoku }
+	private static final long WINDOW = 1L << 28;
+	private final FileChannel channel;
+	private final Format format;
+	private final String mapFileName;				//"" for the default map of each size
+	private final HashMap<Integer, AreaMap> maps = new HashMap<Integer, AreaMap>();	//Loaded maps, by size
+	private final long end;							//Size of the file
+	private long pos;								//Next byte to read
+	private MappedByteBuffer window = null;
+	private long windowStart = 0, windowEnd = 0;
+	private final Line line = new Line();			//Reused for every line
+
+	private class Line implements CharSequence{
+		/* A view of the current line in the mapped file */
+		private long start;
+		private int length;
+		public int length(){
+			return length;
+		}
+		public char charAt(int i){
+			return (char)get(start + i);
+		}
+		public CharSequence subSequence(int from, int to){
+			return toString().subSequence(from, to);
+		}
+		public String toString(){
+			StringBuilder s = new StringBuilder(length);
+			for(int i = 0; i < length; i++) s.append(charAt(i));
+			return s.toString();
+		}
+	}
+
+	public PuzzleSource(String fileName, Format format, String mapFileName) throws IOException{
+		/* Map the file fileName. Boards from the lines
+		 * format use map/9.map; .sudoku puzzles use
+		 * mapFileName, or the default map for their
+		 * size if it is ""
+		 * */
+		channel = new RandomAccessFile(fileName, "r").getChannel();
+		this.format = format;
+		this.mapFileName = mapFileName;
+		pos = 0;
+		end = channel.size();
+	}
+	private int get(long p){
+		/* Return the byte at position p in the file,
+		 * or -1 past the end
+		 * */
+		if(p >= end) return -1;
+		if(p < windowStart || p >= windowEnd){
+			try{
+				windowStart = p;
+				windowEnd = Math.min(end, p + WINDOW);
+				window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowEnd - windowStart);
+			}catch(IOException e){
+				throw new UncheckedIOException(e);
+			}
+		}
+		return window.get((int)(p - windowStart)) & 0xff;
+	}
+	private static boolean space(int b){
+		return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+	}
+	private AreaMap map(int size){
+		/* Return the map for boards of this size,
+		 * loading it the first time
+		 * */
+		AreaMap a = maps.get(size);
+		if(a == null){
+			String name = mapFileName.equals("") ? "map/" + size + ".map" : mapFileName;
+			a = AreaMap.load(name, size);
+			maps.put(size, a);
+		}
+		return a;
+	}
+	public boolean hasNext(){
+		/* Check if there are more puzzles. Skips
+		 * blank space up to the next one
+		 * */
+		int b;
+		while((b = get(pos)) >= 0 && space(b)) pos++;
+		return b >= 0;
+	}
+	public Board next(){
+		/* Return the next puzzle. Call hasNext() first.
+		 * A malformed line gives null; a malformed
+		 * .sudoku puzzle throws IllegalArgumentException,
+		 * as the puzzles after it can't be found
+		 * */
+		return (format == Format.lines) ? nextLine() : nextSudoku();
+	}
+	private Board nextLine(){
+		long start = pos;
+		int b;
+		while((b = get(pos)) >= 0 && b != '\n') pos++;
+		long stop = pos;
+		while(stop > start && space(get(stop - 1))) stop--;	//Trim trailing '\r' and blanks
+		line.start = start;
+		line.length = (int)Math.min(stop - start, Integer.MAX_VALUE);
+		if(line.length != 81) return null;
+		return new Board(line, map(9));
+	}
+	private Board nextSudoku(){
+		/* Find the end of the puzzle, the character set
+		 * and then one token per field, and have
+		 * Board.parse() read it
+		 * */
+		long start = pos;
+		int b, size = 1;
+		while((b = get(pos)) >= 0 && !space(b)){
+			if(b == ',') size++;
+			pos++;
+		}
+		for(long i = 0; i < (long)size*size && b >= 0; i++){
+			while((b = get(pos)) >= 0 && space(b)) pos++;
+			while((b = get(pos)) >= 0 && !space(b)) pos++;
+		}
+		return Board.parse(text(start, pos), this::map);
+	}
+	private String text(long from, long to){
+		/* The bytes from..to-1 as a String */
+		StringBuilder s = new StringBuilder((int)(to - from));
+		for(long p = from; p < to; p++) s.append((char)get(p));
+		return s.toString();
+	}
+	public void close() throws IOException{
+		/* Close the file */
+		channel.close();
+	}
+}
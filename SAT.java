@@ -0,0 +1,539 @@
+/*SAT class
+ *
+ * A third solving engine. It encodes a Board as a CNF
+ * formula and solves it with a conflict driven clause
+ * learning (CDCL) SAT solver. Where the board engine
+ * backtracks to the last choice and runs into the same
+ * dead end again and again, the solver learns a clause
+ * from every conflict that rules that dead end out for
+ * good, and jumps back to where it went wrong. That pays
+ * off on large and irregular boards.
+ *
+ * There is one variable for each character that is still
+ * legal in each field (characters defined in a peer are
+ * left out), and clauses saying that
+ *   - every field holds exactly one character
+ *   - every row, column and area holds every character
+ *     exactly once
+ * The units come from the board's AreaMap. "At most one"
+ * is a clause for every pair for small groups, and a
+ * sequential counter (with helper variables) for big ones,
+ * so the formula stays small on big boards.
+ *
+ * The solver follows MiniSat: two watched literals for
+ * propagation, first-UIP learning with the learnt clause
+ * minimized, VSIDS to pick the next variable with the
+ * phase it last had, Luby restarts, and the learnt
+ * clauses with the worst LBD (the number of decision
+ * levels in them) thrown away now and then.
+ *
+ * writeDimacs() writes the formula in the DIMACS format, so
+ * it can be checked with other solvers. The board's Limits
+ * are checked at every decision.
+ * */
+
+import java.io.* ;
+import java.util.ArrayList ;
+import java.util.Arrays ;
+
+class SAT{
+	private static final int PAIRWISE = 6;		//Largest group with pairwise "at most one"
+	private static final int RESTART = 100;		//Conflicts in the first restart interval
+	private static final double DECAY = 0.95;	//Variable activity decay
+	private final Board board;
+	private final int size;
+	private final int cells;					//Variables 0..cells-1 are field characters
+	private final int[] fieldOf, charOf;		//Field and character of each of them
+	private int vars;
+	private final ArrayList<int[]> formula = new ArrayList<int[]>();	//The clauses, as encoded
+	/* Solver state. Literal 2v is variable v, 2v+1 is its negation */
+	private byte[] value;						//Of each literal: 1 true, -1 false, 0 unassigned
+	private int[] level;						//Decision level of each variable
+	private int[][] reason;						//Clause that implied each variable, or null
+	private int[] trail;						//Assigned literals, in order
+	private int trailSize = 0, qhead = 0;
+	private int[] trailLim = new int[16];		//Start of each decision level on the trail
+	private int decisionLevel = 0;
+	private int[][][] watches;					//Clauses watching each literal
+	private int[] watchCount;
+	private final ArrayList<int[]> learnts = new ArrayList<int[]>();
+	private boolean unsat = false;
+	/* A clause is an int[]: c[0] is its LBD (0 for the clauses
+	 * of the formula, -1 once it is thrown away), and the
+	 * literals follow. c[1] and c[2] are watched
+	 * */
+	private double[] activity;
+	private double varInc = 1;
+	private boolean[] phase;					//The value each variable had last
+	private int[] heap, heapIndex;				//Unassigned variables by activity
+	private int heapSize = 0;
+	private boolean[] seen;						//Scratch for analyze()
+	private int[] out;
+	private long decisions = 0, conflicts = 0, restarts = 0;
+
+	public SAT(Board board){
+		/* Encode board, using the characters that are
+		 * still legal in each field
+		 * */
+		this.board = board;
+		size = board.getSize();
+		int n = size*size;
+		AreaMap area = board.getArea();
+		int[] varOf = new int[n*size];
+		Arrays.fill(varOf, -1);
+		int count = 0;
+		for(int i = 0; i < n; i++){
+			CSet legal = new CSet(board.getField(i).canBe());
+			for(int f : area.peers(i)){
+				int d = board.getField(f).definedIndex();
+				if(d >= 0 && !board.getField(i).isDefined()) legal.del(d);
+			}
+			for(int c = legal.first(); c >= 0; c = legal.next(c+1)){
+				varOf[i*size + c] = count++;
+			}
+		}
+		cells = count;
+		vars = count;
+		fieldOf = new int[cells];
+		charOf = new int[cells];
+		for(int k = 0; k < n*size; k++){
+			if(varOf[k] >= 0){
+				fieldOf[varOf[k]] = k / size;
+				charOf[varOf[k]] = k % size;
+			}
+		}
+		int[] group = new int[size];
+		for(int i = 0; i < n; i++){					//Each field holds one character
+			int m = 0;
+			for(int c = 0; c < size; c++){
+				if(varOf[i*size + c] >= 0) group[m++] = 2*varOf[i*size + c];
+			}
+			exactlyOne(group, m);
+		}
+		for(int u = 0; u < area.units(); u++){			//Each unit holds each character once
+			int[] unit = area.unit(u);
+			for(int c = 0; c < size; c++){
+				int m = 0;
+				for(int f : unit){
+					if(varOf[f*size + c] >= 0) group[m++] = 2*varOf[f*size + c];
+				}
+				exactlyOne(group, m);
+			}
+		}
+	}
+	private void exactlyOne(int[] group, int m){
+		/* Add clauses saying that exactly one of the
+		 * first m literals of group is true
+		 * */
+		formula.add(Arrays.copyOf(group, m));			//At least one
+		if(m <= PAIRWISE){
+			for(int a = 0; a < m; a++){
+				for(int b = a + 1; b < m; b++){
+					formula.add(new int[]{ group[a] ^ 1, group[b] ^ 1 });
+				}
+			}
+			return;
+		}
+		/* Sequential counter: s[k] is true if one of the
+		 * first k+1 literals is. It gets a new variable
+		 * for each of the first m-1
+		 * */
+		int s = vars;
+		vars += m - 1;
+		formula.add(new int[]{ group[0] ^ 1, 2*s });
+		for(int k = 1; k < m - 1; k++){
+			formula.add(new int[]{ group[k] ^ 1, 2*(s + k) });
+			formula.add(new int[]{ 2*(s + k - 1) + 1, 2*(s + k) });
+			formula.add(new int[]{ group[k] ^ 1, 2*(s + k - 1) + 1 });
+		}
+		formula.add(new int[]{ group[m-1] ^ 1, 2*(s + m - 2) + 1 });
+	}
+	public int getVariables(){
+		return vars;
+	}
+	public int getClauses(){
+		return formula.size();
+	}
+	public void writeDimacs(Writer out) throws IOException{
+		/* Write the formula in the DIMACS CNF format.
+		 * Comment lines give the field (row and column,
+		 * from 0) and character of each variable; the
+		 * others are helpers
+		 * */
+		out.write("c JavaSudoku " + size + "x" + size + " board\n");
+		for(int v = 0; v < cells; v++){
+			int f = fieldOf[v];
+			out.write("c " + (v + 1) + " row " + f/size + " col " + f%size + " char " + board.getCharSet().token(charOf[v]) + "\n");
+		}
+		out.write("p cnf " + vars + " " + formula.size() + "\n");
+		StringBuilder line = new StringBuilder();
+		for(int[] clause : formula){
+			line.setLength(0);
+			for(int lit : clause){
+				line.append((lit & 1) == 0 ? (lit >> 1) + 1 : -((lit >> 1) + 1)).append(' ');
+			}
+			line.append("0\n");
+			out.write(line.toString());
+		}
+	}
+	public boolean solve(){
+		/* Solve the board. If a solution is found it
+		 * is written back to the board's fields and true
+		 * is returned. Otherwise the board is not changed,
+		 * and board.getLimits().stopped() tells if a limit
+		 * was passed
+		 * */
+		Limits limits = board.getLimits();
+		limits.reset();
+		init();
+		if(!search(limits)) return false;
+		for(int v = 0; v < cells; v++){
+			if(value[2*v] > 0){
+				Field f = board.getField(fieldOf[v]);
+				if(!f.isDefined()) f.define(charOf[v]);
+			}
+		}
+		return true;
+	}
+	private void init(){
+		/* Set up the solver and load the formula */
+		value = new byte[2*vars];
+		level = new int[vars];
+		reason = new int[vars][];
+		trail = new int[vars];
+		watches = new int[2*vars][][];
+		watchCount = new int[2*vars];
+		activity = new double[vars];
+		phase = new boolean[vars];
+		seen = new boolean[vars];
+		out = new int[vars + 1];
+		heap = new int[vars];
+		heapIndex = new int[vars];
+		Arrays.fill(heapIndex, -1);
+		for(int v = 0; v < cells; v++){				//Helpers follow from the fields, so are never picked
+			phase[v] = true;							//Try putting characters in fields first
+			insert(v);
+		}
+		for(int[] lits : formula){
+			int m = 0;
+			int[] c = new int[lits.length + 1];
+			boolean satisfied = false;
+			for(int lit : lits){						//Drop the literals that are false already
+				if(value[lit] > 0) satisfied = true;
+				else if(value[lit] == 0) c[++m] = lit;
+			}
+			if(satisfied) continue;
+			if(m == 0){
+				unsat = true;
+				return;
+			}
+			if(m == 1){
+				if(value[c[1]] == 0) assign(c[1], null);
+				continue;
+			}
+			c = Arrays.copyOf(c, m + 1);
+			watch(c[1], c);
+			watch(c[2], c);
+		}
+	}
+	private void watch(int lit, int[] c){
+		if(watches[lit] == null) watches[lit] = new int[4][];
+		else if(watchCount[lit] == watches[lit].length) watches[lit] = Arrays.copyOf(watches[lit], 2*watchCount[lit]);
+		watches[lit][watchCount[lit]++] = c;
+	}
+	private void assign(int lit, int[] from){
+		int v = lit >> 1;
+		value[lit] = 1;
+		value[lit ^ 1] = -1;
+		level[v] = decisionLevel;
+		reason[v] = from;
+		trail[trailSize++] = lit;
+	}
+	private int[] propagate(){
+		/* Assign the literals the watched clauses imply,
+		 * until there are none left. Returns a clause that
+		 * is false, or null
+		 * */
+		while(qhead < trailSize){
+			int falseLit = trail[qhead++] ^ 1;
+			int[][] ws = watches[falseLit];
+			int n = watchCount[falseLit];
+			int i = 0, j = 0;
+			while(i < n){
+				int[] c = ws[i++];
+				if(c[0] < 0) continue;					//Thrown away: stop watching it
+				if(c[1] == falseLit){					//Keep the false literal at c[2]
+					c[1] = c[2];
+					c[2] = falseLit;
+				}
+				int first = c[1];
+				if(value[first] > 0){
+					ws[j++] = c;
+					continue;
+				}
+				int k = 3;
+				while(k < c.length && value[c[k]] < 0) k++;
+				if(k < c.length){						//Watch another literal
+					c[2] = c[k];
+					c[k] = falseLit;
+					watch(c[2], c);
+					continue;
+				}
+				ws[j++] = c;
+				if(value[first] < 0){					//Conflict
+					while(i < n) ws[j++] = ws[i++];
+					watchCount[falseLit] = j;
+					qhead = trailSize;
+					return c;
+				}
+				assign(first, c);
+			}
+			watchCount[falseLit] = j;
+		}
+		return null;
+	}
+	private int analyze(int[] conflict){
+		/* Find the first-UIP clause of a conflict, and
+		 * put it in out[0..] with the literal it asserts
+		 * first and one from the level to jump back to
+		 * second. Returns its length
+		 * */
+		int m = 1, paths = 0, p = -1, index = trailSize - 1;
+		int[] c = conflict;
+		do{
+			promote(c);
+			for(int k = (p < 0) ? 1 : 2; k < c.length; k++){	//c[1] is p itself in a reason
+				int v = c[k] >> 1;
+				if(!seen[v] && level[v] > 0){
+					bump(v);
+					seen[v] = true;
+					if(level[v] >= decisionLevel) paths++;
+					else out[m++] = c[k];
+				}
+			}
+			while(!seen[trail[index--] >> 1]);
+			p = trail[index + 1];
+			c = reason[p >> 1];
+			seen[p >> 1] = false;
+			paths--;
+		}while(paths > 0);
+		out[0] = p ^ 1;
+		/* Drop the literals implied by the others,
+		 * marking them with ~ until seen is cleared
+		 * */
+		for(int k = 1; k < m; k++){
+			int[] r = reason[out[k] >> 1];
+			boolean implied = (r != null);
+			for(int x = 2; implied && x < r.length; x++){
+				int v = r[x] >> 1;
+				if(!seen[v] && level[v] > 0) implied = false;
+			}
+			if(implied) out[k] = ~out[k];
+		}
+		int kept = 1;
+		for(int k = 1; k < m; k++){
+			if(out[k] < 0){
+				seen[~out[k] >> 1] = false;
+			}else{
+				seen[out[k] >> 1] = false;
+				out[kept++] = out[k];
+			}
+		}
+		return kept;
+	}
+	private void promote(int[] c){
+		/* A learnt clause took part in a conflict:
+		 * improve its LBD a little, so it is kept
+		 * */
+		if(c[0] > 2) c[0]--;
+	}
+	private void learn(int m){
+		/* Jump back and add the clause in out[0..m-1] */
+		int back = 0, at = 1;
+		for(int k = 1; k < m; k++){
+			if(level[out[k] >> 1] > back){
+				back = level[out[k] >> 1];
+				at = k;
+			}
+		}
+		cancelUntil(back);
+		if(m == 1){
+			assign(out[0], null);
+			return;
+		}
+		int[] c = new int[m + 1];
+		c[1] = out[0];
+		c[2] = out[at];
+		for(int k = 1, x = 3; k < m; k++){
+			if(k != at) c[x++] = out[k];
+		}
+		c[0] = lbd(c);
+		learnts.add(c);
+		watch(c[1], c);
+		watch(c[2], c);
+		assign(c[1], c);
+	}
+	private int lbd(int[] c){
+		/* The number of decision levels in c */
+		int n = 0;
+		for(int k = 1; k < c.length; k++){
+			int l = level[c[k] >> 1];
+			boolean fresh = true;
+			for(int x = 1; x < k && fresh; x++){
+				if(level[c[x] >> 1] == l) fresh = false;
+			}
+			if(fresh) n++;
+		}
+		return Math.max(n, 1);
+	}
+	private void cancelUntil(int target){
+		/* Undo the assignments above decision level target */
+		if(decisionLevel <= target) return;
+		for(int k = trailSize - 1; k >= trailLim[target]; k--){
+			int lit = trail[k];
+			int v = lit >> 1;
+			value[lit] = 0;
+			value[lit ^ 1] = 0;
+			reason[v] = null;
+			phase[v] = (lit & 1) == 0;
+			if(heapIndex[v] < 0 && v < cells) insert(v);
+		}
+		trailSize = trailLim[target];
+		qhead = trailSize;
+		decisionLevel = target;
+	}
+	private void reduce(){
+		/* Throw away the half of the learnt clauses with
+		 * the worst LBD, keeping the ones with 2 or less.
+		 * Only called at level 0, where no learnt clause
+		 * is the reason for anything that matters
+		 * */
+		learnts.sort((a, b) -> (a[0] != b[0]) ? a[0] - b[0] : a.length - b.length);
+		int keep = learnts.size() / 2;
+		for(int k = keep; k < learnts.size(); k++){
+			int[] c = learnts.get(k);
+			if(c[0] <= 2) keep++;
+			else c[0] = -1;
+		}
+		ArrayList<int[]> kept = new ArrayList<int[]>();
+		for(int[] c : learnts){
+			if(c[0] >= 0) kept.add(c);
+		}
+		learnts.clear();
+		learnts.addAll(kept);
+	}
+	private boolean search(Limits limits){
+		/* The CDCL loop. Returns true when every
+		 * variable is assigned
+		 * */
+		if(unsat || propagate() != null) return false;
+		long interval = RESTART, left = interval;
+		int maxLearnts = Math.max(formula.size() / 3, 5000);
+		while(true){
+			int[] conflict = propagate();
+			if(conflict != null){
+				conflicts++;
+				left--;
+				if(decisionLevel == 0) return false;
+				learn(analyze(conflict));
+				varInc /= DECAY;
+				continue;
+			}
+			if(left <= 0){								//Restart
+				cancelUntil(0);
+				restarts++;
+				interval = RESTART * luby(restarts);
+				left = interval;
+				if(learnts.size() >= maxLearnts){
+					reduce();
+					maxLearnts += maxLearnts / 10;
+				}
+			}
+			if(limits.exceeded(decisions)) return false;
+			int v = -1;
+			while(heapSize > 0){
+				int x = removeMax();
+				if(value[2*x] == 0){
+					v = x;
+					break;
+				}
+			}
+			if(v < 0) return true;						//Every field has its character
+			decisions++;
+			if(decisionLevel == trailLim.length) trailLim = Arrays.copyOf(trailLim, 2*decisionLevel);
+			trailLim[decisionLevel++] = trailSize;
+			assign(phase[v] ? 2*v : 2*v + 1, null);
+		}
+	}
+	private static long luby(long x){
+		/* The x'th number of the Luby sequence
+		 * 1 1 2 1 1 2 4 1 1 2 ...
+		 * */
+		long size = 1;
+		int seq = 0;
+		while(size < x + 1){
+			seq++;
+			size = 2*size + 1;
+		}
+		while(size - 1 != x){
+			size = (size - 1) >> 1;
+			seq--;
+			x = x % size;
+		}
+		return 1L << seq;
+	}
+	/* The heap of variables, most active first */
+	private void bump(int v){
+		if((activity[v] += varInc) > 1e100){			//Scale everything down
+			for(int x = 0; x < vars; x++) activity[x] *= 1e-100;
+			varInc *= 1e-100;
+		}
+		if(heapIndex[v] >= 0) up(heapIndex[v]);
+	}
+	private void insert(int v){
+		heapIndex[v] = heapSize;
+		heap[heapSize++] = v;
+		up(heapSize - 1);
+	}
+	private int removeMax(){
+		int v = heap[0];
+		heapIndex[v] = -1;
+		if(--heapSize > 0){
+			heap[0] = heap[heapSize];
+			heapIndex[heap[0]] = 0;
+			down(0);
+		}
+		return v;
+	}
+	private void up(int i){
+		int v = heap[i];
+		while(i > 0 && activity[heap[(i - 1) >> 1]] < activity[v]){
+			heap[i] = heap[(i - 1) >> 1];
+			heapIndex[heap[i]] = i;
+			i = (i - 1) >> 1;
+		}
+		heap[i] = v;
+		heapIndex[v] = i;
+	}
+	private void down(int i){
+		int v = heap[i];
+		while(2*i + 1 < heapSize){
+			int child = 2*i + 1;
+			if(child + 1 < heapSize && activity[heap[child + 1]] > activity[heap[child]]) child++;
+			if(activity[heap[child]] <= activity[v]) break;
+			heap[i] = heap[child];
+			heapIndex[heap[i]] = i;
+			i = child;
+		}
+		heap[i] = v;
+		heapIndex[v] = i;
+	}
+	public long getNodes(){
+		/* Return the number of decisions made */
+		return decisions;
+	}
+	public String toString(){
+		return "Searched " + decisions + " decisions, " + conflicts + " conflicts, " + restarts + " restarts, "
+				+ learnts.size() + " learnt clauses kept (" + vars + " variables, " + formula.size() + " clauses)";
+	}
+}
@@ -0,0 +1,229 @@
+/*Server class
+ *
+ * A solve service that keeps one JVM warm, so a request
+ * costs a solve instead of a JVM start. It listens on a
+ * TCP port on localhost and speaks two protocols, told
+ * apart by the first line of a connection:
+ *
+ *   plain    one puzzle per request, either as an 81
+ *            character line (the -s format) or in the
+ *            .sudoku format (the character set, then
+ *            size*size tokens, on as many lines as it
+ *            takes). The answer is one line: the solution
+ *            (as toPuzzleString() writes it), FAILED,
+ *            TIMEOUT or ERROR and a message. The line STATS
+ *            gives the latency percentiles, and QUIT closes
+ *            the connection. Any number of requests can be
+ *            sent on one connection
+ *   HTTP     GET /solve?s=<puzzle string>, or POST /solve
+ *            with the puzzle (either format) as the body.
+ *            GET /stats gives the latency percentiles. The
+ *            answer is a text/plain body with the same line
+ *            as above, and the connection is closed
+ *
+ * Each connection is handled on a virtual thread when the
+ * JVM has them (Java 21 and later, looked up by reflection
+ * so the server still builds and runs on older JVMs), and
+ * on a cached thread pool otherwise. A solve that takes
+ * longer than the timeout is stopped by the deadline in the
+ * board's Limits and answered with TIMEOUT. The latency of every
+ * request, from reading it to writing the answer, is
+ * recorded in a Histogram, and a summary is written to
+ * standard error when the server shuts down.
+ * */
+
+import java.io.* ;
+import java.net.* ;
+import java.nio.charset.StandardCharsets ;
+import java.util.concurrent.* ;
+
+class Server{
+	private final int port;
+	private final Strategy strategy;
+	private long timeout = 10000;								//Milliseconds allowed for each solve
+	private SolutionCache cache = null;
+	private final Histogram latency = new Histogram();			//Microseconds for each request
+
+	public Server(int port, Strategy strategy){
+		this.port = port;
+		this.strategy = strategy;
+	}
+	public void setTimeout(long timeout){
+		/* Stop each solve after timeout milliseconds */
+		this.timeout = timeout;
+	}
+	public void setCache(SolutionCache cache){
+		/* Look standard 9x9 puzzles up in cache first */
+		this.cache = cache;
+	}
+	private static ExecutorService handlers(){
+		/* An executor that starts a virtual thread for
+		 * each task if the JVM has them, or else a
+		 * cached thread pool
+		 * */
+		try{
+			return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}catch(ReflectiveOperationException e){
+			return Executors.newCachedThreadPool();
+		}
+	}
+	public void run(){
+		/* Serve until the process is stopped */
+		ExecutorService pool = handlers();
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> System.err.println(summary())));
+		try(ServerSocket s = new ServerSocket(port, 128, InetAddress.getLoopbackAddress())){
+			System.err.println("Serving on " + s.getInetAddress().getHostAddress() + ":" + s.getLocalPort()
+					+ (pool instanceof ThreadPoolExecutor ? " (thread pool)" : " (virtual threads)"));
+			while(true){
+				Socket client = s.accept();
+				pool.submit(() -> {
+					handle(client);
+					return null;
+				});
+			}
+		}catch(IOException e){
+			System.err.println("Server failed: " + e.getMessage());
+			System.exit(-1);
+		}finally{
+			pool.shutdown();
+		}
+	}
+	public String summary(){
+		return String.format("%d requests, latency: p50 %d us, p99 %d us, max %d us",
+				latency.count(), latency.percentile(50), latency.percentile(99), latency.max());
+	}
+	private void handle(Socket client){
+		/* Answer the requests on one connection */
+		try(Socket c = client;
+				BufferedReader in = new BufferedReader(new InputStreamReader(c.getInputStream(), StandardCharsets.UTF_8));
+				Writer out = new BufferedWriter(new OutputStreamWriter(c.getOutputStream(), StandardCharsets.UTF_8))){
+			String line = in.readLine();
+			if(line != null && line.matches("(GET|POST) \\S+ HTTP/1\\.[01]")){
+				http(line, in, out);
+				return;
+			}
+			for(; line != null; line = in.readLine()){
+				line = line.trim();
+				if(line.equals("")) continue;
+				if(line.equals("QUIT")) break;
+				String answer = line.equals("STATS") ? summary() : answer(line, in);
+				out.write(answer + "\n");
+				out.flush();
+			}
+		}catch(IOException e){
+			//The client went away. Nothing to answer
+		}
+	}
+	private void http(String request, BufferedReader in, Writer out) throws IOException{
+		/* Answer one HTTP request, whose request line
+		 * has been read
+		 * */
+		String[] part = request.split(" ");
+		int length = 0;
+		String header;
+		while((header = in.readLine()) != null && !header.equals("")){
+			int colon = header.indexOf(':');
+			if(colon > 0 && header.substring(0, colon).trim().equalsIgnoreCase("Content-Length")){
+				try{
+					length = Integer.parseInt(header.substring(colon + 1).trim());
+				}catch(NumberFormatException e){
+					length = -1;
+				}
+			}
+		}
+		String path = part[1], query = "";
+		int q = path.indexOf('?');
+		if(q >= 0){
+			query = path.substring(q + 1);
+			path = path.substring(0, q);
+		}
+		int status = 200;
+		String body;
+		if(path.equals("/stats") && part[0].equals("GET")){
+			body = summary();
+		}else if(!path.equals("/solve")){
+			status = 404;
+			body = "ERROR no such path " + path;
+		}else if(part[0].equals("GET")){
+			String puzzle = null;
+			for(String param : query.split("&")){
+				if(param.startsWith("s=")) puzzle = URLDecoder.decode(param.substring(2), StandardCharsets.UTF_8);
+			}
+			if(puzzle == null){
+				status = 400;
+				body = "ERROR no puzzle: use /solve?s=<puzzle string>";
+			}else{
+				body = answer(puzzle.trim(), new BufferedReader(new StringReader("")));
+			}
+		}else if(length < 0 || length > (1 << 20)){
+			status = 400;
+			body = "ERROR bad Content-Length";
+		}else{
+			char[] content = new char[length];
+			int n = 0, r;
+			while(n < length && (r = in.read(content, n, length - n)) > 0) n += r;
+			BufferedReader lines = new BufferedReader(new StringReader(new String(content, 0, n)));
+			String first;
+			while((first = lines.readLine()) != null && first.trim().equals(""));
+			body = (first == null) ? "ERROR no puzzle" : answer(first.trim(), lines);
+		}
+		if(status == 200 && body.startsWith("ERROR")) status = 400;
+		byte[] bytes = (body + "\n").getBytes(StandardCharsets.UTF_8);
+		out.write("HTTP/1.1 " + status + (status == 200 ? " OK" : status == 404 ? " Not Found" : " Bad Request") + "\r\n"
+				+ "Content-Type: text/plain; charset=utf-8\r\n"
+				+ "Content-Length: " + bytes.length + "\r\n"
+				+ "Connection: close\r\n\r\n");
+		out.write(body + "\n");
+		out.flush();
+	}
+	private String answer(String first, BufferedReader in) throws IOException{
+		/* Read a puzzle that starts with the line first,
+		 * solve it, and return the answer line
+		 * */
+		long start = System.nanoTime();
+		String answer;
+		try{
+			Board b = parse(first, in);
+			answer = solve(b);
+		}catch(IllegalArgumentException e){
+			answer = "ERROR " + e.getMessage();
+		}
+		latency.add((System.nanoTime() - start) / 1000);
+		return answer;
+	}
+	private static Board parse(String first, BufferedReader in) throws IOException{
+		/* Make a Board of an 81 character puzzle string, or
+		 * of a .sudoku puzzle that starts on the line first,
+		 * reading more lines until it is complete
+		 * */
+		if(first.length() == 81 && first.indexOf(' ') < 0 && first.indexOf(',') < 0){
+			return new Board(first, AreaMap.load("map/9.map", 9));
+		}
+		StringBuilder puzzle = new StringBuilder(first);
+		int size = first.trim().split("\\s+")[0].split(",").length;
+		int n = tokens(first) - 1;							//Token 0 is the character set
+		String line;
+		while(n < size*size && (line = in.readLine()) != null){
+			puzzle.append('\n').append(line);
+			n += tokens(line);
+		}
+		return Board.parse(puzzle.toString(), s -> {
+			String map = "map/" + s + ".map";
+			if(s < 2 || !new File(map).exists()) throw new IllegalArgumentException("no map for boards of size " + s);
+			return AreaMap.load(map, s);
+		});
+	}
+	private static int tokens(String line){
+		/* The number of blank separated tokens on line */
+		String t = line.trim();
+		return t.isEmpty() ? 0 : t.split("\\s+").length;
+	}
+	private String solve(Board b){
+		/* Solve b, stopping it after the timeout */
+		b.setStrategy(strategy);
+		b.getLimits().setTimeout(timeout);
+		Board solved = (cache != null) ? cache.solve(b) : b.solveInPlace(false);
+		if(solved != null) return solved.toPuzzleString();
+		return (b.getOutcome() == Limits.Outcome.TIMED_OUT) ? "TIMEOUT" : "FAILED";
+	}
+}
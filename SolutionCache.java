@@ -0,0 +1,117 @@
+/*SolutionCache class
+ *
+ * A bounded cache of solutions, put in front of the solver
+ * for standard 9x9 puzzles. Puzzles are looked up by their
+ * CanonicalForm, so a puzzle that is a relabeled,
+ * transposed or shuffled copy of one solved before is a hit,
+ * and the solution is mapped back to it. Puzzles with no
+ * solution are cached too.
+ *
+ * The least recently used entry is dropped when the cache
+ * is full. All methods are synchronized, so one cache can
+ * be shared by the threads of a Batch. The number of hits
+ * and misses is kept, and toString() gives the ratios.
+ *
+ * load() and save() keep the cache in a file between runs,
+ * one "canonical-form solution" line per entry (- for no
+ * solution), least recently used first.
+ * */
+
+import java.io.* ;
+import java.util.LinkedHashMap ;
+import java.util.Map ;
+
+class SolutionCache{
+	private static final String NONE = "-";	//The solution of a puzzle with none
+	private final int capacity;
+	private final LinkedHashMap<String, String> map;
+	private long hits = 0, misses = 0;
+
+	public SolutionCache(int capacity){
+		/* Create a cache of at most capacity solutions */
+		this.capacity = capacity;
+		map = new LinkedHashMap<String, String>(16, 0.75f, true){		//In access order
+			protected boolean removeEldestEntry(Map.Entry<String, String> eldest){
+				return size() > SolutionCache.this.capacity;
+			}
+		};
+	}
+	public Board solve(Board board){
+		/* Solve board like board.solveInPlace(false), going
+		 * through the cache if it is a standard 9x9 puzzle.
+		 * Returns the board, solved, or null
+		 * */
+		if(!CanonicalForm.fits(board)) return board.solveInPlace(false);
+		CanonicalForm form = new CanonicalForm(board);
+		String key = form.key();
+		String solution = get(key);
+		if(solution != null){
+			if(solution.equals(NONE)) return null;
+			form.fromCanonical(solution, board);
+			return board;
+		}
+		Board solved = board.solveInPlace(false);
+		if(solved == null && board.getOutcome() != Limits.Outcome.FAILED) return null;	//Not known to have no solution
+		put(key, solved == null ? NONE : form.toCanonical(solved));
+		return solved;
+	}
+	private synchronized String get(String key){
+		String solution = map.get(key);
+		if(solution == null) misses++; else hits++;
+		return solution;
+	}
+	private synchronized void put(String key, String solution){
+		map.put(key, solution);
+	}
+	public synchronized long getHits(){
+		return hits;
+	}
+	public synchronized long getMisses(){
+		return misses;
+	}
+	public synchronized int size(){
+		return map.size();
+	}
+	public synchronized String toString(){
+		long lookups = hits + misses;
+		return String.format("Cache: %d hits (%.1f%%), %d misses (%.1f%%), %d/%d entries",
+				hits, lookups == 0 ? 0.0 : 100.0*hits/lookups,
+				misses, lookups == 0 ? 0.0 : 100.0*misses/lookups,
+				map.size(), capacity);
+	}
+	public synchronized void load(String fileName){
+		/* Add the entries in fileName, if it exists */
+		File file = new File(fileName);
+		if(!file.exists()) return;
+		try(BufferedReader in = new BufferedReader(new FileReader(file))){
+			String line;
+			while((line = in.readLine()) != null){
+				String[] entry = line.trim().split("\\s+");
+				if(entry.length != 2 || entry[0].length() != 81) continue;	//Not an entry
+				map.put(entry[0], entry[1]);
+			}
+		}catch(IOException e){
+			System.err.println("Could not read cache file \'" + fileName + "\': " + e.getMessage());
+		}
+	}
+	public synchronized void save(String fileName){
+		/* Write the entries to fileName. They are written
+		 * to a temporary file first, and that is renamed,
+		 * so a crash never leaves half a snapshot
+		 * */
+		File file = new File(fileName);
+		File tmp = new File(fileName + ".tmp");
+		try(Writer out = new BufferedWriter(new FileWriter(tmp))){
+			for(Map.Entry<String, String> e : map.entrySet()){
+				out.write(e.getKey() + " " + e.getValue() + "\n");
+			}
+		}catch(IOException e){
+			System.err.println("Could not write cache file \'" + fileName + "\': " + e.getMessage());
+			return;
+		}
+		if(!tmp.renameTo(file)){
+			file.delete();
+			if(!tmp.renameTo(file)) System.err.println("Could not write cache file \'" + fileName + "\'");
+		}
+	}
+}
@@ -0,0 +1,193 @@
+/*Stats class
+ *
+ * A Stats object collects numbers about a solve.
+ * It is shared by a board and all the copies made
+ * while solving it. The counters are not synchronized,
+ * so threads that solve in parallel keep their own Stats
+ * and add() them together at the end.
+ *
+ * It counts
+ *   - the search: nodes visited, backtracks, the deepest
+ *     node and the number of Board copies
+ *   - every candidate removed from a field (Field tells it)
+ *   - for each scan, the calls, the candidates removed
+ *     during them, and the time spent in them. Reading the
+ *     clock costs more than the rest, so time is only
+ *     measured if setTimed(true) has been called
+ *   - the hits of each deduction technique: the times it
+ *     removed at least one candidate
+ *
+ * report() and toJSON() give all of it.
+ * */
+
+class Stats{
+	public static enum Technique {
+		nakedPair("naked pair"), nakedTriple("naked triple"), nakedQuad("naked quad"),
+		hiddenPair("hidden pair"), hiddenTriple("hidden triple"), hiddenQuad("hidden quad"),
+		xWing("X-Wing"), swordfish("swordfish"), xyWing("XY-Wing");
+
+		private final String name;
+		Technique(String name){
+			this.name = name;
+		}
+		public String toString(){
+			return name;
+		}
+	}
+	public static enum Scan {
+		singles("naked singles"), hiddenSingles("hidden singles"), pointing("pointing"),
+		subsets("subsets"), patterns("patterns");
+
+		private final String name;
+		Scan(String name){
+			this.name = name;
+		}
+		public String toString(){
+			return name;
+		}
+	}
+	private boolean timed = false;
+	private long nodes = 0;				//Search nodes visited
+	private long backtracks = 0;		//Choices that failed
+	private int maxDepth = 0;			//Deepest node
+	private long copies = 0;			//Board copies made
+	private long eliminations = 0;		//Candidates removed
+	private final long[] hits = new long[Technique.values().length];
+	private final long[] calls = new long[Scan.values().length];
+	private final long[] removed = new long[Scan.values().length];
+	private final long[] nanos = new long[Scan.values().length];
+
+	public void setTimed(boolean timed){
+		/* Measure the time spent in each scan */
+		this.timed = timed;
+	}
+	public boolean isTimed(){
+		return timed;
+	}
+	public void node(){
+		/* Count a visited search node */
+		nodes++;
+	}
+	public void node(int depth){
+		/* Count a visited search node at this depth */
+		nodes++;
+		if(depth > maxDepth) maxDepth = depth;
+	}
+	public void nodes(long n){
+		/* Count n nodes searched by another engine */
+		nodes += n;
+	}
+	public void backtrack(){
+		backtracks++;
+	}
+	public void copy(){
+		copies++;
+	}
+	public void eliminated(int n){
+		/* Count n candidates removed from a field */
+		eliminations += n;
+	}
+	public void hit(Technique t){
+		/* Count a hit of technique t */
+		hits[t.ordinal()]++;
+	}
+	public long start(){
+		/* Call before a scan, and pass the
+		 * result to scan() after it
+		 * */
+		return timed ? System.nanoTime() : 0;
+	}
+	public long getEliminations(){
+		return eliminations;
+	}
+	public void scan(Scan s, long eliminationsBefore, long start){
+		/* Count a call of scan s, which started when
+		 * getEliminations() was eliminationsBefore and
+		 * start() was start
+		 * */
+		calls[s.ordinal()]++;
+		removed[s.ordinal()] += eliminations - eliminationsBefore;
+		if(timed) nanos[s.ordinal()] += System.nanoTime() - start;
+	}
+	public synchronized void add(Stats other){
+		/* Add the numbers from other to this */
+		nodes += other.nodes;
+		backtracks += other.backtracks;
+		maxDepth = Math.max(maxDepth, other.maxDepth);
+		copies += other.copies;
+		eliminations += other.eliminations;
+		for(int t = 0; t < hits.length; t++){
+			hits[t] += other.hits[t];
+		}
+		for(int s = 0; s < calls.length; s++){
+			calls[s] += other.calls[s];
+			removed[s] += other.removed[s];
+			nanos[s] += other.nanos[s];
+		}
+	}
+	public long getNodes(){
+		return nodes;
+	}
+	public long getHits(Technique t){
+		return hits[t.ordinal()];
+	}
+	public String toString(){
+		/* "Searched n nodes", followed by the
+		 * techniques that had any hits
+		 * */
+		StringBuilder s = new StringBuilder("Searched " + nodes + " nodes");
+		String sep = " (";
+		for(Technique t : Technique.values()){
+			if(hits[t.ordinal()] == 0) continue;
+			s.append(sep).append(t).append(' ').append(hits[t.ordinal()]);
+			sep = ", ";
+		}
+		if(!sep.equals(" (")) s.append(')');
+		return s.toString();
+	}
+	public synchronized String report(){
+		/* All the numbers, as a table */
+		StringBuilder s = new StringBuilder();
+		s.append(String.format("Search: %d nodes, %d backtracks, max depth %d, %d copies%n",
+				nodes, backtracks, maxDepth, copies));
+		s.append(String.format("%-16s %12s %14s %12s%n", "Scan", "calls", "eliminations", timed ? "ms" : ""));
+		for(Scan sc : Scan.values()){
+			int i = sc.ordinal();
+			s.append(String.format("%-16s %12d %14d %12s%n", sc, calls[i], removed[i],
+					timed ? String.format("%.3f", nanos[i] / 1e6) : ""));
+		}
+		s.append(String.format("%-16s %12s %14d%n", "total", "", eliminations));
+		s.append("Techniques:");
+		String sep = " ";
+		for(Technique t : Technique.values()){
+			s.append(sep).append(t).append(' ').append(hits[t.ordinal()]);
+			sep = ", ";
+		}
+		return s.toString();
+	}
+	public synchronized String toJSON(){
+		/* All the numbers, as a JSON object */
+		StringBuilder s = new StringBuilder();
+		s.append("{\"nodes\":").append(nodes)
+			.append(",\"backtracks\":").append(backtracks)
+			.append(",\"maxDepth\":").append(maxDepth)
+			.append(",\"copies\":").append(copies)
+			.append(",\"eliminations\":").append(eliminations)
+			.append(",\"scans\":{");
+		for(Scan sc : Scan.values()){
+			int i = sc.ordinal();
+			if(i > 0) s.append(',');
+			s.append('"').append(sc.name()).append("\":{\"calls\":").append(calls[i])
+				.append(",\"eliminations\":").append(removed[i]);
+			if(timed) s.append(",\"ms\":").append(String.format(java.util.Locale.ROOT, "%.3f", nanos[i] / 1e6));
+			s.append('}');
+		}
+		s.append("},\"techniques\":{");
+		for(Technique t : Technique.values()){
+			if(t.ordinal() > 0) s.append(',');
+			s.append('"').append(t.name()).append("\":").append(hits[t.ordinal()]);
+		}
+		s.append("}}");
+		return s.toString();
+	}
+}
@@ -0,0 +1,156 @@
+/*Strategy interface
+ *
+ * A Strategy decides how Board's search branches when
+ * the scans can't make any more progress: which field
+ * to branch on, and in which order to try its
+ * characters.
+ *
+ *   first   the first undefined field, characters in order
+ *           (the original behaviour)
+ *   mrv     the field with the fewest legal characters
+ *   degree  mrv, ties broken by the most undefined peers
+ *   lcv     mrv, trying the least constraining character first
+ *   random  mrv, trying the characters in random order
+ * */
+
+interface Strategy{
+	/* Return the index of the field to branch on,
+	 * or -1 if every field is defined
+	 * */
+	int pick(Board board);
+	/* Put the characters to try for field i
+	 * into choices, in the order they should be tried.
+	 * Returns the number of characters
+	 * */
+	int order(Board board, int i, int[] choices);
+
+	static Strategy forName(String name){
+		/* Return the strategy called name,
+		 * or null if there's no such strategy
+		 * */
+		if(name.equals("first")) return new FirstStrategy();
+		if(name.equals("mrv")) return new MRVStrategy();
+		if(name.equals("degree")) return new DegreeStrategy();
+		if(name.equals("lcv")) return new LCVStrategy();
+		if(name.equals("random")) return new RandomStrategy(new java.util.Random().nextLong());
+		return null;
+	}
+}
+
+class FirstStrategy implements Strategy{
+	public int pick(Board board){
+		int n = board.getSize()*board.getSize();
+		for(int i = 0; i < n; i++){
+			if(!board.getField(i).isDefined()) return i;
+		}
+		return -1;
+	}
+	public int order(Board board, int i, int[] choices){
+		/* Try the characters in charset order */
+		CSet legal = board.getField(i).canBe();
+		int n = 0;
+		for(int c = legal.first(); c >= 0; c = legal.next(c+1)){
+			choices[n++] = c;
+		}
+		return n;
+	}
+}
+
+class MRVStrategy extends FirstStrategy{
+	public int pick(Board board){
+		/* Pick the undefined field with the fewest
+		 * legal characters. A field with two is as
+		 * good as it gets
+		 * */
+		int n = board.getSize()*board.getSize();
+		int best = -1;
+		int bestCount = Integer.MAX_VALUE;
+		for(int i = 0; i < n; i++){
+			int count = board.getField(i).count();
+			if(count > 1 && count < bestCount){
+				best = i;
+				bestCount = count;
+				if(count == 2) break;
+			}
+		}
+		return best;
+	}
+}
+
+class DegreeStrategy extends FirstStrategy{
+	public int pick(Board board){
+		/* Pick the undefined field with the fewest
+		 * legal characters. Among those, pick the one
+		 * with the most undefined peers
+		 * */
+		int n = board.getSize()*board.getSize();
+		AreaMap area = board.getArea();
+		int best = -1;
+		int bestCount = Integer.MAX_VALUE;
+		int bestDegree = -1;
+		for(int i = 0; i < n; i++){
+			int count = board.getField(i).count();
+			if(count <= 1 || count > bestCount) continue;
+			int degree = 0;
+			for(int f : area.peers(i)){
+				if(!board.getField(f).isDefined()) degree++;
+			}
+			if(count < bestCount || degree > bestDegree){
+				best = i;
+				bestCount = count;
+				bestDegree = degree;
+			}
+		}
+		return best;
+	}
+}
+
+class LCVStrategy extends MRVStrategy{
+	public int order(Board board, int i, int[] choices){
+		/* Try the characters that are legal in the
+		 * fewest undefined peers first, since they
+		 * remove the fewest options from the rest
+		 * of the board
+		 * */
+		int n = super.order(board, i, choices);
+		int[] score = new int[n];
+		for(int f : board.getArea().peers(i)){
+			Field peer = board.getField(f);
+			if(peer.isDefined()) continue;
+			for(int k = 0; k < n; k++){
+				if(peer.canBe(choices[k])) score[k]++;
+			}
+		}
+		for(int k = 1; k < n; k++){				//Insertion sort on score
+			int c = choices[k];
+			int s = score[k];
+			int j = k - 1;
+			for(; j >= 0 && score[j] > s; j--){
+				choices[j+1] = choices[j];
+				score[j+1] = score[j];
+			}
+			choices[j+1] = c;
+			score[j+1] = s;
+		}
+		return n;
+	}
+}
+
+class RandomStrategy extends MRVStrategy{
+	private final java.util.Random random;
+
+	public RandomStrategy(long seed){
+		random = new java.util.Random(seed);
+	}
+	public int order(Board board, int i, int[] choices){
+		/* Shuffle the characters */
+		int n = super.order(board, i, choices);
+		for(int k = n - 1; k > 0; k--){
+			int j = random.nextInt(k + 1);
+			int c = choices[k];
+			choices[k] = choices[j];
+			choices[j] = c;
+		}
+		return n;
+	}
+}
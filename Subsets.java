@@ -0,0 +1,187 @@
+/*Subsets class
+ *
+ * Finds naked and hidden subsets in a unit, working on
+ * candidate bitmasks. This replaces the old scanFour,
+ * which tried every subset of the character set.
+ *
+ *   naked    k fields whose candidates together are only
+ *            k characters. No other field in the unit can
+ *            have those characters
+ *   hidden   k characters that together fit in only k
+ *            fields. Those fields can't have any other
+ *            characters
+ *
+ * for k from 2 up to maxSize (at most 4: pairs, triples
+ * and quads). A naked subset of k out of n open fields
+ * leaves a hidden subset of the other n-k, so k never has
+ * to be more than n/2. Only fields with at most k
+ * candidates (characters with at most k places) can be
+ * part of a subset, and the combinations are given up as
+ * soon as their union has more than k members, so the work
+ * stays small even on 25x25 boards. Each hit is counted in
+ * the Stats.
+ * */
+
+class Subsets{
+	public static final int MAX = 4;			//Quads
+	private static final Stats.Technique[] NAKED = { null, null,
+		Stats.Technique.nakedPair, Stats.Technique.nakedTriple, Stats.Technique.nakedQuad };
+	private static final Stats.Technique[] HIDDEN = { null, null,
+		Stats.Technique.hiddenPair, Stats.Technique.hiddenTriple, Stats.Technique.hiddenQuad };
+	private final Field[] field;
+	private final int size;
+	private final int maxSize;
+	private Stats stats;
+	/* Scratch space, so run() never allocates */
+	private final int[] open;					//The undefined fields of the unit
+	private final int[] count;					//count[p]: the number of candidates of open[p]
+	private int n;								//and how many there are
+	private final int[] chars;					//The characters not placed in the unit
+	private int m;								//and how many there are
+	private final CSet[] where;				//where[c]: the positions in open that can have c
+	private final int[] places;				//places[j]: the size of where[chars[j]]
+	private final CSet[] union;				//union[d]: the union of the first d picks
+	private final int[] pick;
+	private final CSet placed, other;
+
+	public Subsets(Field[] field, int size, int maxSize, Stats stats){
+		/* Creates a subset finder for the fields of a board.
+		 * Subsets of up to maxSize (at most MAX) are looked for
+		 * */
+		this.field = field;
+		this.size = size;
+		this.maxSize = Math.min(maxSize, MAX);
+		this.stats = stats;
+		open = new int[size];
+		count = new int[size];
+		places = new int[size];
+		chars = new int[size];
+		where = new CSet[size];
+		for(int c = 0; c < size; c++){
+			where[c] = new CSet(size);
+		}
+		union = new CSet[MAX + 1];
+		for(int d = 0; d <= MAX; d++){
+			union[d] = new CSet(size);
+		}
+		pick = new int[MAX];
+		placed = new CSet(size);
+		other = new CSet(size);
+	}
+	public void setStats(Stats stats){
+		this.stats = stats;
+	}
+	public boolean run(int[] cells) throws NoLegalCharactersException{
+		/* Look for subsets in the unit made of cells,
+		 * and remove what they rule out. Returns true as
+		 * soon as one subset has removed something
+		 * */
+		n = 0;
+		placed.empty();
+		for(int f : cells){
+			int d = field[f].definedIndex();
+			if(d >= 0){
+				placed.add(d);
+			}else{
+				count[n] = field[f].count();
+				open[n++] = f;
+			}
+		}
+		int kMax = Math.min(maxSize, n/2);
+		if(kMax < 2) return false;
+		/* Naked subsets */
+		for(int k = 2; k <= kMax; k++){
+			if(fewer(count, n, k)) continue;
+			union[0].empty();
+			if(naked(0, 0, k)){
+				stats.hit(NAKED[k]);
+				return true;
+			}
+		}
+		/* Hidden subsets */
+		m = 0;
+		for(int c = 0; c < size; c++){
+			if(placed.has(c)) continue;
+			chars[m++] = c;
+			where[c].empty();
+		}
+		for(int p = 0; p < n; p++){
+			CSet legal = field[open[p]].canBe();
+			for(int c = legal.first(); c >= 0; c = legal.next(c+1)){
+				where[c].add(p);
+			}
+		}
+		for(int j = 0; j < m; j++){
+			places[j] = where[chars[j]].count();
+		}
+		for(int k = 2; k <= kMax; k++){
+			if(fewer(places, m, k)) continue;
+			union[0].empty();
+			if(hidden(0, 0, k)){
+				stats.hit(HIDDEN[k]);
+				return true;
+			}
+		}
+		return false;
+	}
+	private static boolean fewer(int[] count, int n, int k){
+		/* Check if fewer than k of the first n counts
+		 * are k or less, so there can't be a subset
+		 * */
+		int small = 0;
+		for(int p = 0; p < n && small < k; p++){
+			if(count[p] <= k) small++;
+		}
+		return small < k;
+	}
+	private boolean naked(int from, int depth, int k) throws NoLegalCharactersException{
+		/* Add fields from open[from..] to the first depth
+		 * picks, until there are k of them
+		 * */
+		if(depth == k){
+			if(union[k].count() < k) throw new NoLegalCharactersException("Too few characters for a naked subset");
+			boolean changed = false;
+			for(int p = 0, j = 0; p < n; p++){
+				if(j < k && pick[j] == p){
+					j++;
+					continue;
+				}
+				if(field[open[p]].canNotBe(union[k])) changed = true;
+			}
+			return changed;
+		}
+		for(int p = from; p <= n - (k - depth); p++){
+			if(count[p] > k) continue;
+			if(union[depth+1].union(union[depth], field[open[p]].canBe()) > k) continue;
+			pick[depth] = p;
+			if(naked(p + 1, depth + 1, k)) return true;
+		}
+		return false;
+	}
+	private boolean hidden(int from, int depth, int k) throws NoLegalCharactersException{
+		/* Add characters from chars[from..] to the first
+		 * depth picks, until there are k of them. Here union
+		 * holds positions in open instead of characters
+		 * */
+		if(depth == k){
+			if(union[k].count() < k) throw new NoLegalCharactersException("Too few fields for a hidden subset");
+			other.fill();
+			for(int j = 0; j < k; j++){
+				other.del(pick[j]);
+			}
+			boolean changed = false;
+			for(int p = union[k].first(); p >= 0; p = union[k].next(p+1)){
+				if(field[open[p]].canNotBe(other)) changed = true;
+			}
+			return changed;
+		}
+		for(int j = from; j <= m - (k - depth); j++){
+			if(places[j] > k) continue;
+			int c = chars[j];
+			if(union[depth+1].union(union[depth], where[c]) > k) continue;
+			pick[depth] = c;
+			if(hidden(j + 1, depth + 1, k)) return true;
+		}
+		return false;
+	}
+}
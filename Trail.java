@@ -0,0 +1,68 @@
+/*Trail class
+ *
+ * A Trail records the candidates of every field before
+ * it is changed, so a Board can be searched in place
+ * and rolled back on backtrack instead of being copied.
+ *
+ * mark() starts a new level and returns a position on
+ * the trail. undo(mark) restores every field changed since
+ * then. A field is saved at most once per level, so the
+ * cost of a branch grows with the number of fields it
+ * changes, not with the size of the board.
+ **/
+
+class Trail{
+	private final Field[] field;
+	private final int words;			//Words needed to save one CSet
+	private int[] cell;					//Saved field index for each entry
+	private long[] bits;				//Saved candidates, "words" per entry
+	private int top = 0;				//Number of entries
+	private final int[] stamp;			//Level each field was last saved in
+	private int level = 1;
+
+	public Trail(Field[] field){
+		/* Creates an empty trail for the fields
+		 * of a board
+		 * */
+		this.field = field;
+		words = field[0].getLegal().words();
+		cell = new int[field.length];
+		bits = new long[field.length * words];
+		stamp = new int[field.length];
+	}
+	public void save(int i){
+		/* Save the candidates of field i, unless they
+		 * have already been saved on this level
+		 * */
+		if(stamp[i] == level) return;
+		stamp[i] = level;
+		if(top == cell.length){				//Grow the trail
+			cell = java.util.Arrays.copyOf(cell, 2*cell.length);
+			bits = java.util.Arrays.copyOf(bits, 2*bits.length);
+		}
+		cell[top] = i;
+		field[i].getLegal().save(bits, top*words);
+		top++;
+	}
+	public int mark(){
+		/* Start a new level and return the
+		 * position to undo back to
+		 * */
+		level++;
+		return top;
+	}
+	public void undo(int mark){
+		/* Restore every field that was changed
+		 * after mark was taken
+		 * */
+		while(top > mark){
+			top--;
+			field[cell[top]].getLegal().load(bits, top*words);
+		}
+		level++;							//Fields saved on the old level must be saved again
+	}
+	public int size(){
+		/* Return the number of entries on the trail */
+		return top;
+	}
+}
@@ -0,0 +1,158 @@
+/*TranspositionTable class
+ *
+ * A bounded table of board states known to have no
+ * solution, so a search that meets one again can give up
+ * on it at once instead of propagating and searching it
+ * all over.
+ *
+ * A state is the candidate set of every field, hashed
+ * the Zobrist way: every (field, candidate) pair has a
+ * random 64 bit key, and the hash of a board is the XOR of
+ * the keys of all its candidates. A Hash is attached to the
+ * fields of a board, and each field XORs the keys of the
+ * candidates it gains or loses into it, so the hash is kept
+ * up to date at the cost of one XOR per change. The keys
+ * are made from the map, so boards on different maps can
+ * share a table.
+ *
+ * Within one search the same state never comes up twice
+ * (sibling branches differ in the field branched on), so
+ * the table pays off when it is shared by searches of the
+ * same puzzle in a different order: restarts, or several
+ * strategies racing on it. A state is only stored once its
+ * whole subtree has been searched without finding a
+ * solution, never when a limit cut the search short, so
+ * the table stays right whatever else the searches do.
+ *
+ * The table is an array of buckets of WAYS hashes. When a
+ * bucket is full, one of its entries is replaced, picked by
+ * the new hash. Buckets are guarded by one of STRIPES locks,
+ * so many threads can share a table. Two states with the
+ * same 64 bit hash would be mixed up, which is too unlikely
+ * to check for.
+ * */
+
+import java.util.SplittableRandom ;
+import java.util.concurrent.ConcurrentHashMap ;
+import java.util.concurrent.atomic.LongAdder ;
+
+class TranspositionTable{
+	private static final int WAYS = 4;						//Entries per bucket
+	private static final int STRIPES = 64;					//Locks, a power of two
+	private static final ConcurrentHashMap<AreaMap, long[]> keys = new ConcurrentHashMap<AreaMap, long[]>();
+	private final long[] table;								//0 is an empty entry
+	private final int mask;									//Buckets - 1
+	private final Object[] locks = new Object[STRIPES];
+	private final LongAdder lookups = new LongAdder(), hits = new LongAdder(), stores = new LongAdder();
+	private final LongAdder used = new LongAdder();			//Entries that are not empty
+
+	/* The running hash of one board */
+	public static class Hash{
+		private final long[] keys;
+		private final int size;
+		private long value = 0;
+
+		private Hash(long[] keys, int size){
+			this.keys = keys;
+			this.size = size;
+		}
+		public long get(){
+			return value;
+		}
+		public void set(long value){
+			/* Restore a hash, after undoing the trail */
+			this.value = value;
+		}
+		public void flip(int field, int c){
+			/* Candidate c of field was added or removed */
+			value ^= keys[field*size + c];
+		}
+		public void rehash(Field[] field){
+			/* Hash the board from scratch */
+			value = 0;
+			for(int i = 0; i < field.length; i++){
+				CSet legal = field[i].getLegal();
+				for(int c = legal.first(); c >= 0; c = legal.next(c + 1)) flip(i, c);
+			}
+		}
+	}
+
+	public TranspositionTable(int capacity){
+		/* Make a table of at least capacity entries */
+		int buckets = Integer.highestOneBit(Math.max(STRIPES, (capacity + WAYS - 1) / WAYS - 1) << 1);
+		table = new long[buckets*WAYS];
+		mask = buckets - 1;
+		for(int s = 0; s < STRIPES; s++) locks[s] = new Object();
+	}
+	public static Hash hash(AreaMap area, Field[] field){
+		/* Make a Hash for a board on area, with the
+		 * fields field, and hash the board
+		 * */
+		int size = area.getSize();
+		long[] k = keys.computeIfAbsent(area, a -> {
+			SplittableRandom random = new SplittableRandom(a.toMapString().hashCode()*0x9E3779B97F4A7C15L);
+			long[] z = new long[size*size*size];
+			for(int i = 0; i < z.length; i++) z[i] = random.nextLong();
+			return z;
+		});
+		Hash h = new Hash(k, size);
+		h.rehash(field);
+		return h;
+	}
+	private static long entry(long hash){
+		return (hash == 0) ? 1 : hash;						//0 marks an empty entry
+	}
+	public boolean failed(long hash){
+		/* Check if the state with this hash is known
+		 * to have no solution
+		 * */
+		lookups.increment();
+		long e = entry(hash);
+		int b = (int)(e ^ (e >>> 32)) & mask;
+		synchronized(locks[b & (STRIPES - 1)]){
+			for(int w = b*WAYS; w < (b + 1)*WAYS; w++){
+				if(table[w] == e){
+					hits.increment();
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+	public void fail(long hash){
+		/* Record that the state with this hash has
+		 * no solution
+		 * */
+		long e = entry(hash);
+		int b = (int)(e ^ (e >>> 32)) & mask;
+		synchronized(locks[b & (STRIPES - 1)]){
+			int free = -1;
+			for(int w = b*WAYS; w < (b + 1)*WAYS; w++){
+				if(table[w] == e) return;
+				if(table[w] == 0 && free < 0) free = w;
+			}
+			if(free < 0){
+				free = b*WAYS + (int)(e >>> 62);				//Full: replace one, picked by the hash
+			}else{
+				used.increment();
+			}
+			table[free] = e;
+		}
+		stores.increment();
+	}
+	public long getLookups(){
+		return lookups.sum();
+	}
+	public long getHits(){
+		return hits.sum();
+	}
+	public long bytes(){
+		/* The memory the table takes */
+		return 8L*table.length;
+	}
+	public String toString(){
+		long l = lookups.sum(), h = hits.sum();
+		return String.format("Transposition table: %d lookups, %d hits (%.1f%%), %d failed states stored, %d/%d entries, %d KiB",
+				l, h, l == 0 ? 0.0 : 100.0*h/l, stores.sum(), used.sum(), table.length, bytes() / 1024);
+	}
+}
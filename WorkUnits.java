@@ -0,0 +1,373 @@
+/*WorkUnits class
+ *
+ * Spreads one hard solve over several processes, with
+ * nothing shared but a directory of plain files:
+ *
+ *   split()    runs the scans and expands the search tree
+ *              down to depth K, like ParallelSearch does
+ *              with threads, and writes every board left at
+ *              that depth to a work unit file. Boards found
+ *              impossible on the way are dropped, and boards
+ *              already solved are written as they are
+ *   work()     a worker: takes unit files one at a time,
+ *              solves (or counts) each, and writes a result
+ *              file next to it. Any number of workers can
+ *              share a directory; a unit is taken by renaming
+ *              it, which only one of them can do
+ *   collect()  the coordinator: optionally starts workers on
+ *              this machine, waits for the results, and gives
+ *              the first solution, or the solution counts
+ *              added up. As soon as the answer is known it
+ *              writes a STOP file, and the workers cancel
+ *              the unit they are on and exit
+ *
+ * The choices made down to depth K don't overlap, so every
+ * solution is in exactly one unit, and the counts of the
+ * units add up to the count of the puzzle.
+ *
+ * A unit file carries everything a worker needs: the mode
+ * (solve, or count with a limit), the scan settings, the
+ * map and the puzzle. Only the defined fields are written;
+ * the worker's scans find the rest again:
+ *
+ *   JavaSudoku work unit 17 of 240
+ *   count 2                   (or solve)
+ *   incremental true
+ *   subsets 4
+ *   patterns none
+ *   map
+ *   0 0 0 1 1 1 2 2 2         (as in the map file)
+ *   ...
+ *   puzzle
+ *   1,2,3,4,5,6,7,8,9         (as Board.toSudokuString())
+ *   ...
+ *
+ * The directory holds root.unit (the puzzle as it was
+ * split, unit 0), unit-NNNNN.unit (renamed to .taken by the
+ * worker that takes it) and unit-NNNNN.result:
+ *
+ *   SOLVED 1 352              (outcome, solutions, nodes)
+ *   1,2,3,4,5,6,7,8,9         (the first solution, if any)
+ *   ...
+ * */
+
+import java.io.* ;
+import java.nio.file.* ;
+import java.util.ArrayList ;
+
+class WorkUnits{
+	private static final String HEADER = "JavaSudoku work unit ";
+	private static final String STOP = "STOP";
+	/* The settings and board of one unit file */
+	private long limit = 0;						//0 to solve, else count up to limit
+	private boolean incremental = true;
+	private int maxSubset = Subsets.MAX;
+	private Stats.Technique[] techniques = Patterns.NONE;
+	private int units = 0;						//How many units the puzzle was split into
+	private Board board = null;
+
+	public static int split(Board b, int depth, long limit, String dir){
+		/* Split b to depth "depth" and write the units
+		 * to dir, which is emptied of old units first.
+		 * They will solve the puzzle if limit is 0, or
+		 * count its solutions up to limit. Returns the
+		 * number of units
+		 * */
+		File d = new File(dir);
+		d.mkdirs();
+		File[] old = d.listFiles((f, name) -> name.endsWith(".unit") || name.endsWith(".taken")
+				|| name.endsWith(".result") || name.endsWith(".tmp") || name.equals(STOP));
+		if(old == null){
+			System.err.println("Could not make work unit directory \'" + dir + "\'");
+			System.exit(-1);
+		}
+		for(File f : old) f.delete();
+		ArrayList<Board> frontier = new ArrayList<Board>();
+		frontier.add(new Board(b));
+		for(int k = 0; k < depth; k++){
+			ArrayList<Board> next = new ArrayList<Board>();
+			for(Board f : frontier){
+				Board[] children = f.branches();
+				if(children == null) continue;				//Impossible
+				if(children.length == 0) next.add(f);		//Solved already
+				for(Board c : children) next.add(c);
+			}
+			frontier = next;
+		}
+		int n = frontier.size();
+		write(new File(d, "root.unit"), 0, n, b, limit);
+		for(int j = 0; j < n; j++){
+			write(new File(d, name(j + 1) + ".unit"), j + 1, n, frontier.get(j), limit);
+		}
+		return n;
+	}
+	private static String name(int unit){
+		return String.format("unit-%05d", unit);
+	}
+	private static void write(File file, int unit, int units, Board b, long limit){
+		/* Write b as unit "unit" of "units" */
+		StringBuilder s = new StringBuilder();
+		s.append(HEADER).append(unit).append(" of ").append(units).append('\n');
+		s.append(limit == 0 ? "solve" : "count " + limit).append('\n');
+		s.append("incremental ").append(b.isIncremental()).append('\n');
+		s.append("subsets ").append(b.getSubsets()).append('\n');
+		ArrayList<String> names = new ArrayList<String>();
+		for(Stats.Technique t : b.getPatterns()) names.add(t.name());
+		s.append("patterns ").append(names.isEmpty() ? "none" : String.join(",", names)).append('\n');
+		s.append("map\n").append(b.getArea().toMapString());
+		s.append("puzzle\n").append(b.toSudokuString());
+		writeAtomically(file, s.toString());
+	}
+	private static void writeAtomically(File file, String text){
+		/* Write text to a temporary file and rename it,
+		 * so no one reads half a file
+		 * */
+		File tmp = new File(file.getPath() + ".tmp");
+		try(Writer out = new BufferedWriter(new FileWriter(tmp))){
+			out.write(text);
+		}catch(IOException e){
+			System.err.println("Could not write \'" + file + "\': " + e.getMessage());
+			System.exit(-1);
+		}
+		if(!tmp.renameTo(file)){
+			System.err.println("Could not write \'" + file + "\'");
+			System.exit(-1);
+		}
+	}
+	private static WorkUnits read(File file){
+		/* Read a unit file, or return null if it
+		 * can't be read
+		 * */
+		WorkUnits u = new WorkUnits();
+		try(BufferedReader in = new BufferedReader(new FileReader(file))){
+			String line = in.readLine();
+			if(line == null || !line.startsWith(HEADER)) return null;
+			u.units = Integer.parseInt(line.substring(line.lastIndexOf(' ') + 1));
+			line = in.readLine();
+			u.limit = line.equals("solve") ? 0 : Long.parseLong(line.substring("count ".length()));
+			u.incremental = Boolean.parseBoolean(value(in.readLine(), "incremental"));
+			u.maxSubset = Integer.parseInt(value(in.readLine(), "subsets"));
+			u.techniques = Patterns.forNames(value(in.readLine(), "patterns"));
+			if(u.techniques == null || !"map".equals(in.readLine())) return null;
+			StringBuilder map = new StringBuilder();
+			while((line = in.readLine()) != null && !line.equals("puzzle")) map.append(line).append('\n');
+			StringBuilder puzzle = new StringBuilder();
+			while((line = in.readLine()) != null) puzzle.append(line).append('\n');
+			u.board = board(map.toString(), puzzle.toString());
+		}catch(IOException | RuntimeException e){
+			return null;
+		}
+		return (u.board != null) ? u : null;
+	}
+	private static String value(String line, String key){
+		if(line == null || !line.startsWith(key + " ")) throw new IllegalArgumentException("no " + key);
+		return line.substring(key.length() + 1).trim();
+	}
+	private static Board board(String map, String puzzle){
+		/* Make a Board of a .sudoku puzzle and a map, or
+		 * return null if they don't fit
+		 * */
+		try{
+			return Board.parse(puzzle, size -> AreaMap.parse(map, size));
+		}catch(IllegalArgumentException e){
+			return null;
+		}
+	}
+	public static void work(String dir, Strategy strategy, long timeout){
+		/* Solve units in dir until there are none left,
+		 * or the coordinator says stop. Each unit is given
+		 * up after timeout milliseconds, if it is not 0
+		 * */
+		File d = new File(dir);
+		File stop = new File(d, STOP);
+		Limits limits = new Limits();
+		Thread watcher = new Thread(() -> {					//Cancel the unit being solved on STOP
+			try{
+				while(!stop.exists()) Thread.sleep(100);
+			}catch(InterruptedException e){
+				return;
+			}
+			limits.cancel();
+		});
+		watcher.setDaemon(true);
+		watcher.start();
+		int done = 0;
+		while(!stop.exists()){
+			File[] units = d.listFiles((f, name) -> name.startsWith("unit-") && name.endsWith(".unit"));
+			if(units == null || units.length == 0) break;
+			java.util.Arrays.sort(units);
+			for(File unit : units){
+				if(stop.exists()) break;
+				String name = unit.getName().substring(0, unit.getName().length() - ".unit".length());
+				File taken = new File(d, name + ".taken");
+				if(!unit.renameTo(taken)) continue;			//Another worker has it
+				WorkUnits u = read(taken);
+				if(u == null){
+					System.err.println("Could not read work unit \'" + unit + "\'");
+					continue;
+				}
+				Board b = u.board;
+				b.setStrategy(strategy);
+				b.setIncremental(u.incremental);
+				b.setSubsets(u.maxSubset);
+				b.setPatterns(u.techniques);
+				b.setLimits(limits);
+				if(timeout > 0) limits.setTimeout(timeout);
+				long solutions;
+				Board first;
+				if(u.limit == 0){
+					first = b.solveInPlace(false);
+					solutions = (first != null) ? 1 : 0;
+				}else{
+					solutions = b.countSolutions(u.limit);
+					first = (u.limit == 1) ? b : b.getFirstSolution();
+				}
+				if(b.getOutcome() == Limits.Outcome.CANCELLED) break;	//Not searched to the end, so no result
+				String result = b.getOutcome() + " " + solutions + " " + b.getStats().getNodes() + "\n";
+				if(solutions > 0 && first != null) result += first.toSudokuString();
+				writeAtomically(new File(d, name + ".result"), result);
+				done++;
+			}
+		}
+		System.err.println("Worker " + ProcessHandle.current().pid() + " searched " + done + " units");
+	}
+	public static void collect(String dir, int workers, String[] workerArgs, long timeout){
+		/* Start "workers" worker processes on dir, with
+		 * the extra arguments workerArgs, wait for the
+		 * results and print the answer. Waits for workers
+		 * started elsewhere if workers is 0. Gives up
+		 * after timeout milliseconds, if it is not 0
+		 * */
+		File d = new File(dir);
+		WorkUnits root = read(new File(d, "root.unit"));
+		if(root == null){
+			System.err.println("No work units in \'" + dir + "\': split a puzzle with -split first");
+			System.exit(-1);
+		}
+		new File(d, STOP).delete();
+		long start = System.nanoTime();
+		ArrayList<Process> started = new ArrayList<Process>();
+		for(int w = 0; w < workers; w++){
+			ArrayList<String> command = new ArrayList<String>();
+			command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+			command.add("-cp");
+			command.add(System.getProperty("java.class.path"));
+			command.add("JavaSudoku");
+			for(String a : workerArgs) command.add(a);
+			command.add("-work");
+			command.add(dir);
+			try{
+				started.add(new ProcessBuilder(command).redirectOutput(ProcessBuilder.Redirect.DISCARD)
+						.redirectError(ProcessBuilder.Redirect.INHERIT).start());
+			}catch(IOException e){
+				System.err.println("Could not start a worker: " + e.getMessage());
+				System.exit(-1);
+			}
+		}
+		boolean[] seen = new boolean[root.units + 1];
+		int results = 0, stopped = 0, winner = 0;
+		long solutions = 0, nodes = 0;
+		String solution = null;
+		boolean done = root.units == 0;
+		while(!done){
+			boolean exited = workers > 0 && allExited(started);	//Before looking, so their last results are seen
+			for(int j = 1; j <= root.units; j++){
+				if(seen[j]) continue;
+				String[] result = result(new File(d, name(j) + ".result"));
+				if(result == null) continue;				//Not there yet, or try again on the next pass
+				String board = result[3];
+				seen[j] = true;
+				results++;
+				solutions += Long.parseLong(result[1]);
+				nodes += Long.parseLong(result[2]);
+				if(result[0].equals("TIMED_OUT")) stopped++;
+				if(solution == null && Long.parseLong(result[1]) > 0){
+					solution = board;
+					winner = j;
+				}
+			}
+			long limit = (root.limit == 0) ? 1 : root.limit;
+			done = results == root.units || solutions >= limit;
+			if(!done && timeout > 0 && System.nanoTime() - start > timeout*1000000) break;
+			if(!done && exited){
+				System.err.println((root.units - results) + " work units were not searched");
+				break;
+			}
+			if(!done){
+				try{
+					Thread.sleep(20);
+				}catch(InterruptedException e){
+					break;
+				}
+			}
+		}
+		try{
+			new File(d, STOP).createNewFile();				//Stop the workers still searching
+		}catch(IOException e){
+			System.err.println("Could not write \'" + new File(d, STOP) + "\': " + e.getMessage());
+		}
+		for(Process p : started){
+			try{
+				p.waitFor();
+			}catch(InterruptedException e){
+				p.destroy();
+			}
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		int searched = results;								//Units finished after the answer was known count too
+		long searchedNodes = nodes;
+		for(int j = 1; j <= root.units; j++){
+			String[] result = seen[j] ? null : result(new File(d, name(j) + ".result"));
+			if(result == null) continue;
+			searched++;
+			searchedNodes += Long.parseLong(result[2]);
+		}
+		boolean complete = done && stopped == 0;
+		Board b = (solution != null) ? board(root.board.getArea().toMapString(), solution) : null;
+		if(root.limit == 0){
+			if(b != null){
+				System.out.println("Success! (work unit " + winner + " of " + root.units + ")");
+			}else{
+				System.out.println(complete ? "FAILED!" : "TIMED OUT!");
+			}
+			System.out.println(b != null ? b : root.board);
+		}else{
+			if(!complete && solutions < root.limit){
+				System.out.println("At least " + solutions + ((solutions == 1) ? " solution" : " solutions") + " (stopped at the timeout)");
+			}else if(solutions == 0){
+				System.out.println("No solutions");
+			}else if(solutions >= root.limit){
+				System.out.println("At least " + solutions + " solutions (stopped at the limit)");
+			}else{
+				System.out.println(solutions + ((solutions == 1) ? " solution" : " solutions"));
+			}
+			if(b != null) System.out.println(b);
+		}
+		System.out.printf("%d of %d work units searched, %d nodes, in %.3f s on %d workers%n",
+				searched, root.units, searchedNodes, seconds, workers);
+	}
+	private static String[] result(File f){
+		/* Read a result file: the outcome, the number of
+		 * solutions, the number of nodes, and the first
+		 * solution (or ""). Returns null if it isn't there,
+		 * or not written completely yet
+		 * */
+		if(!f.exists()) return null;
+		try{
+			String text = new String(Files.readAllBytes(f.toPath()));
+			int newline = text.indexOf('\n');
+			String[] line = text.substring(0, newline).split(" ");
+			Long.parseLong(line[1]);
+			Long.parseLong(line[2]);
+			return new String[]{ line[0], line[1], line[2], text.substring(newline + 1) };
+		}catch(IOException | RuntimeException e){
+			return null;
+		}
+	}
+	private static boolean allExited(ArrayList<Process> started){
+		for(Process p : started){
+			if(p.isAlive()) return false;
+		}
+		return true;
+	}
+}